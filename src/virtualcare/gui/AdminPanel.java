@@ -2,6 +2,7 @@ package virtualcare.gui;
 
 import virtualcare.model.*;
 import virtualcare.service.DataManager;
+import virtualcare.service.Page;
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
@@ -12,11 +13,15 @@ import java.util.List;
  * Handles administrative operations
  */
 public class AdminPanel extends JPanel {
+    // Rows fetched per click of Load More
+    private static final int PAGE_SIZE = 100;
+
     private DataManager dataManager;
     private JTable providerTable, billTable, feedbackTable;
     private DefaultTableModel providerTableModel, billTableModel, feedbackTableModel;
     private JTextField providerNameField, availabilityField;
     private JComboBox<String> specialtyField;
+    private String billCursor;
 
     public AdminPanel(DataManager dataManager) {
         this.dataManager = dataManager;
@@ -64,10 +69,7 @@ public class AdminPanel extends JPanel {
         gbc.gridx = 1;
         JComboBox<Admin> adminCombo = new JComboBox<>();
         try {
-            List<Admin> admins = dataManager.getAllAdmins();
-            for (Admin a : admins) {
-                adminCombo.addItem(a);
-            }
+            dataManager.streamAdmins().forEach(adminCombo::addItem);
         } catch (Exception ex) {
 
         }
@@ -202,7 +204,7 @@ public class AdminPanel extends JPanel {
                         availabilityField.getText(),
                         password
                     );
-                    provider.setManagedBy(admin);
+                    provider.setManagedByID(admin.getUserID());
                     dataManager.saveProvider(provider);
                     admin.manageSystem();
                     dataManager.saveAdmin(admin);
@@ -237,10 +239,7 @@ public class AdminPanel extends JPanel {
         gbc.gridx = 1;
         JComboBox<Admin> adminCombo = new JComboBox<>();
         try {
-            List<Admin> admins = dataManager.getAllAdmins();
-            for (Admin a : admins) {
-                adminCombo.addItem(a);
-            }
+            dataManager.streamAdmins().forEach(adminCombo::addItem);
         } catch (Exception ex) {
 
         }
@@ -262,11 +261,8 @@ public class AdminPanel extends JPanel {
         gbc.gridx = 1;
         JComboBox<Appointment> appointmentCombo = new JComboBox<>();
         try {
-            List<Appointment> appointments = dataManager.getAllAppointments();
-            for (Appointment apt : appointments) {
-                if (apt.getBill() == null) {
-                    appointmentCombo.addItem(apt);
-                }
+            for (Appointment apt : dataManager.getUnbilledAppointments()) {
+                appointmentCombo.addItem(apt);
             }
         } catch (Exception ex) {
 
@@ -278,8 +274,7 @@ public class AdminPanel extends JPanel {
                 super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
                 if (value instanceof Appointment) {
                     Appointment apt = (Appointment) value;
-                    String patientName = apt.getPatient() != null ? apt.getPatient().getName() : "N/A";
-                    setText(patientName + " - " + apt.getDateTime());
+                    setText(patientName(apt.getPatientID()) + " - " + apt.getDateTime());
                 }
                 return this;
             }
@@ -298,6 +293,8 @@ public class AdminPanel extends JPanel {
         JTextField paymentMethodField = new JTextField(20);
         panel.add(paymentMethodField, gbc);
 
+        JLabel countsLabel = new JLabel(appointmentCounts());
+
         gbc.gridx = 0; gbc.gridy = 4; gbc.gridwidth = 2;
         JButton generateBtn = new JButton("Generate Bill");
         generateBtn.addActionListener(e -> {
@@ -311,20 +308,18 @@ public class AdminPanel extends JPanel {
                         "Pending",
                         paymentMethodField.getText()
                     );
-                    bill.setAppointment(appointment);
-                    appointment.setBill(bill);
+                    bill.setAppointmentID(appointment.getAppointmentID());
+                    appointment.setBillID(billID);
                     bill.generate();
                     dataManager.saveBill(bill);
                     dataManager.saveAppointment(appointment);
                     JOptionPane.showMessageDialog(this, "Bill generated successfully!");
 
                     appointmentCombo.removeAllItems();
-                    List<Appointment> appointments = dataManager.getAllAppointments();
-                    for (Appointment apt : appointments) {
-                        if (apt.getBill() == null) {
-                            appointmentCombo.addItem(apt);
-                        }
+                    for (Appointment apt : dataManager.getUnbilledAppointments()) {
+                        appointmentCombo.addItem(apt);
                     }
+                    countsLabel.setText(appointmentCounts());
                     amountField.setText("");
                     paymentMethodField.setText("");
                 } else {
@@ -336,9 +331,27 @@ public class AdminPanel extends JPanel {
         });
         panel.add(generateBtn, gbc);
 
+        gbc.gridy = 5;
+        panel.add(countsLabel, gbc);
+
         return panel;
     }
 
+    /**
+     * Appointment totals per status, read from DataManager's counters
+     */
+    private String appointmentCounts() {
+        try {
+            return "Scheduled: " + dataManager.countAppointments(AppointmentStatus.SCHEDULED)
+                    + "   Completed: " + dataManager.countAppointments(AppointmentStatus.COMPLETED)
+                    + "   Cancelled: " + dataManager.countAppointments(AppointmentStatus.CANCELLED)
+                    + "   Completed and unbilled: "
+                    + dataManager.countUnbilledAppointments(AppointmentStatus.COMPLETED);
+        } catch (Exception ex) {
+            return "Appointment counts unavailable: " + ex.getMessage();
+        }
+    }
+
     private JPanel createProvidersListPanel() {
         JPanel panel = new JPanel(new BorderLayout());
 
@@ -351,16 +364,13 @@ public class AdminPanel extends JPanel {
         JButton refreshBtn = new JButton("Refresh Providers");
         refreshBtn.addActionListener(e -> {
             try {
-                List<Provider> providers = dataManager.getAllProviders();
                 providerTableModel.setRowCount(0);
-                for (Provider p : providers) {
-                    providerTableModel.addRow(new Object[]{
-                        p.getUserID(),
-                        p.getName(),
-                        p.getSpecialty(),
-                        p.getAvailability()
-                    });
-                }
+                dataManager.streamProviders().forEach(p -> providerTableModel.addRow(new Object[]{
+                    p.getUserID(),
+                    p.getName(),
+                    p.getSpecialty(),
+                    p.getAvailability()
+                }));
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
             }
@@ -391,16 +401,13 @@ public class AdminPanel extends JPanel {
                     JOptionPane.showMessageDialog(this, "Provider deleted successfully!");
                     
                     // Refresh the table
-                    List<Provider> providers = dataManager.getAllProviders();
                     providerTableModel.setRowCount(0);
-                    for (Provider p : providers) {
-                        providerTableModel.addRow(new Object[]{
-                            p.getUserID(),
-                            p.getName(),
-                            p.getSpecialty(),
-                            p.getAvailability()
-                        });
-                    }
+                    dataManager.streamProviders().forEach(p -> providerTableModel.addRow(new Object[]{
+                        p.getUserID(),
+                        p.getName(),
+                        p.getSpecialty(),
+                        p.getAvailability()
+                    }));
                 } catch (Exception ex) {
                     JOptionPane.showMessageDialog(this, "Error deleting provider: " + ex.getMessage());
                     ex.printStackTrace();
@@ -423,30 +430,47 @@ public class AdminPanel extends JPanel {
         billTable = new JTable(billTableModel);
         JScrollPane scrollPane = new JScrollPane(billTable);
 
+        JPanel buttonPanel = new JPanel(new FlowLayout());
+        JButton loadMoreBtn = new JButton("Load More");
+        loadMoreBtn.setEnabled(false);
+        loadMoreBtn.addActionListener(e -> loadBills(loadMoreBtn));
+
         JButton refreshBtn = new JButton("Refresh Bills");
         refreshBtn.addActionListener(e -> {
-            try {
-                List<Bill> bills = dataManager.getAllBills();
-                billTableModel.setRowCount(0);
-                for (Bill b : bills) {
-                    billTableModel.addRow(new Object[]{
-                        b.getBillID(),
-                        b.getAmount(),
-                        b.getStatus(),
-                        b.getPaymentMethod()
-                    });
-                }
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
-            }
+            billTableModel.setRowCount(0);
+            billCursor = null;
+            loadBills(loadMoreBtn);
         });
+        buttonPanel.add(refreshBtn);
+        buttonPanel.add(loadMoreBtn);
 
         panel.add(scrollPane, BorderLayout.CENTER);
-        panel.add(refreshBtn, BorderLayout.SOUTH);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
 
         return panel;
     }
 
+    /**
+     * Appends the next page of bills to the table
+     */
+    private void loadBills(JButton loadMoreBtn) {
+        try {
+            Page<Bill> page = dataManager.getBillsPage(billCursor, PAGE_SIZE);
+            for (Bill b : page.getItems()) {
+                billTableModel.addRow(new Object[]{
+                    b.getBillID(),
+                    b.getAmount(),
+                    b.getStatus(),
+                    b.getPaymentMethod()
+                });
+            }
+            billCursor = page.getNextCursor();
+            loadMoreBtn.setEnabled(page.hasMore());
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
+        }
+    }
+
     private JPanel createFeedbackListPanel() {
         JPanel panel = new JPanel(new BorderLayout());
 
@@ -458,16 +482,13 @@ public class AdminPanel extends JPanel {
         JButton refreshBtn = new JButton("Refresh Feedback");
         refreshBtn.addActionListener(e -> {
             try {
-                List<Feedback> feedbacks = dataManager.getAllFeedbacks();
                 feedbackTableModel.setRowCount(0);
-                for (Feedback f : feedbacks) {
-                    feedbackTableModel.addRow(new Object[]{
-                        f.getFeedbackID(),
-                        f.getRating(),
-                        f.getComment(),
-                        f.getDate()
-                    });
-                }
+                dataManager.streamFeedbacks().forEach(f -> feedbackTableModel.addRow(new Object[]{
+                    f.getFeedbackID(),
+                    f.getRating(),
+                    f.getComment(),
+                    f.getDate()
+                }));
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
             }
@@ -478,5 +499,16 @@ public class AdminPanel extends JPanel {
 
         return panel;
     }
-}
 
+    /**
+     * Looks up a patient's name for display, or "N/A" if it cannot be resolved
+     */
+    private String patientName(String patientID) {
+        try {
+            Patient patient = dataManager.loadPatient(patientID);
+            return patient != null ? patient.getName() : "N/A";
+        } catch (Exception e) {
+            return "N/A";
+        }
+    }
+}
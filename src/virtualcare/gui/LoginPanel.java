@@ -277,6 +277,9 @@ public class LoginPanel extends JPanel {
 
             try {
                 if (selectedType == UserType.PATIENT) {
+                    if (!confirmNotRegistered(registrationDialog, name)) {
+                        return;
+                    }
                     userID = dataManager.generatePatientID();
                     String contact = JOptionPane.showInputDialog(registrationDialog, "Enter contact information:");
                     String medicalHistory = JOptionPane.showInputDialog(registrationDialog, "Enter medical history (optional):");
@@ -317,5 +320,20 @@ public class LoginPanel extends JPanel {
         registrationDialog.add(panel);
         registrationDialog.setVisible(true);
     }
-}
 
+    /**
+     * Warns when a patient with a name that sounds like the new one may
+     * already be registered, before an ID is handed out. Nobody is logged in
+     * yet, so the warning names no existing patient. Returns whether to go
+     * ahead.
+     */
+    private boolean confirmNotRegistered(JDialog registrationDialog, String name) throws Exception {
+        if (!dataManager.hasSimilarPatient(name)) {
+            return true;
+        }
+        return JOptionPane.showConfirmDialog(registrationDialog,
+                "A patient with a similar name may already be registered.\n"
+                + "If you have registered before, please contact the front desk instead.\n\nRegister anyway?",
+                "Possible Duplicate", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) == JOptionPane.YES_OPTION;
+    }
+}
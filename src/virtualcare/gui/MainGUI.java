@@ -38,14 +38,7 @@ public class MainGUI extends JFrame {
         loginPanel = new LoginPanel(dataManager, authService, this);
         mainPanel.add(loginPanel, "LOGIN");
 
-        // Create user panels
-        patientPanel = new PatientPanel(dataManager, authService);
-        providerPanel = new ProviderPanel(dataManager, authService);
-        adminPanel = new AdminPanel(dataManager);
-
-        mainPanel.add(patientPanel, "PATIENT");
-        mainPanel.add(providerPanel, "PROVIDER");
-        mainPanel.add(adminPanel, "ADMIN");
+        // User panels load appointments, bills etc., so they are created on first login
 
         add(mainPanel);
         
@@ -65,14 +58,26 @@ public class MainGUI extends JFrame {
     public void onSuccessfulLogin(UserType userType) {
         switch (userType) {
             case PATIENT:
+                if (patientPanel == null) {
+                    patientPanel = new PatientPanel(dataManager, authService);
+                    mainPanel.add(patientPanel, "PATIENT");
+                }
                 patientPanel.refreshPanel();
                 cardLayout.show(mainPanel, "PATIENT");
                 break;
             case PROVIDER:
+                if (providerPanel == null) {
+                    providerPanel = new ProviderPanel(dataManager, authService);
+                    mainPanel.add(providerPanel, "PROVIDER");
+                }
                 providerPanel.refreshPanel();
                 cardLayout.show(mainPanel, "PROVIDER");
                 break;
             case ADMIN:
+                if (adminPanel == null) {
+                    adminPanel = new AdminPanel(dataManager);
+                    mainPanel.add(adminPanel, "ADMIN");
+                }
                 cardLayout.show(mainPanel, "ADMIN");
                 break;
         }
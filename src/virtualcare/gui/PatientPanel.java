@@ -4,6 +4,8 @@ import virtualcare.model.*;
 import virtualcare.service.DataManager;
 import virtualcare.service.AuthenticationService;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
@@ -13,6 +15,9 @@ import java.time.LocalDate;
 import java.util.List;
 
 public class PatientPanel extends JPanel {
+    // Providers offered while a name or specialty is typed
+    private static final int PROVIDER_SUGGESTIONS = 20;
+
     private DataManager dataManager;
     private AuthenticationService authService;
     private Patient currentPatient;
@@ -294,14 +299,24 @@ public class PatientPanel extends JPanel {
         panel.add(new JLabel("Provider:"), gbc);
         gbc.gridx = 1;
         JComboBox<Provider> providerCombo = new JComboBox<>();
-        try {
-            List<Provider> providers = dataManager.getAllProviders();
-            for (Provider p : providers) {
-                providerCombo.addItem(p);
+        fillProviderCombo(providerCombo, "");
+        JTextField providerFilter = new JTextField(10);
+        providerFilter.setToolTipText("Type a provider name or specialty");
+        providerFilter.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                fillProviderCombo(providerCombo, providerFilter.getText());
             }
-        } catch (Exception ex) {
 
-        }
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                fillProviderCombo(providerCombo, providerFilter.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
         providerCombo.setRenderer(new DefaultListCellRenderer() {
             @Override
             public Component getListCellRendererComponent(JList<?> list, Object value, int index,
@@ -313,7 +328,10 @@ public class PatientPanel extends JPanel {
                 return this;
             }
         });
-        panel.add(providerCombo, gbc);
+        JPanel providerPanel = new JPanel(new BorderLayout(5, 0));
+        providerPanel.add(providerFilter, BorderLayout.WEST);
+        providerPanel.add(providerCombo, BorderLayout.CENTER);
+        panel.add(providerPanel, gbc);
 
 
         gbc.gridx = 0; gbc.gridy = 3; gbc.gridwidth = 2;
@@ -344,7 +362,6 @@ public class PatientPanel extends JPanel {
                     provider
                 );
                 dataManager.saveAppointment(appointment);
-                dataManager.savePatient(currentPatient);
                 JOptionPane.showMessageDialog(this, "Appointment booked successfully! ID: " + appointmentID);
                 
                 // Reset dropdowns
@@ -481,7 +498,6 @@ public class PatientPanel extends JPanel {
                     commentField.getText()
                 );
                 dataManager.saveFeedback(feedback);
-                dataManager.savePatient(currentPatient);
                 JOptionPane.showMessageDialog(this, "Feedback submitted successfully!");
                 ratingField.setSelectedItem(null);
                 commentField.setText("");
@@ -533,8 +549,7 @@ public class PatientPanel extends JPanel {
                 try {
                     // Verify the appointment belongs to current patient
                     Appointment apt = dataManager.loadAppointment(appointmentID);
-                    if (apt != null && apt.getPatient() != null && 
-                        apt.getPatient().getUserID().equals(currentPatient.getUserID())) {
+                    if (apt != null && currentPatient.getUserID().equals(apt.getPatientID())) {
                         dataManager.deleteAppointment(appointmentID);
                         JOptionPane.showMessageDialog(this, "Appointment deleted successfully!");
                         refreshAppointmentsTable();
@@ -588,22 +603,47 @@ public class PatientPanel extends JPanel {
      */
     private void refreshAppointmentsTable() {
         try {
-            List<Appointment> appointments = dataManager.getAllAppointments();
             tableModel.setRowCount(0);
-            for (Appointment apt : appointments) {
-                // Only show appointments belonging to current patient
-                if (apt.getPatient() != null && apt.getPatient().getUserID().equals(currentPatient.getUserID())) {
-                    tableModel.addRow(new Object[]{
-                        apt.getAppointmentID(),
-                        apt.getDateTime(),
-                        apt.getStatus(),
-                        apt.getProvider() != null ? apt.getProvider().getName() : "N/A"
-                    });
-                }
+            // Only appointments belonging to current patient
+            for (Appointment apt : dataManager.getAppointmentsForPatient(currentPatient.getUserID())) {
+                tableModel.addRow(new Object[]{
+                    apt.getAppointmentID(),
+                    apt.getDateTime(),
+                    apt.getStatus(),
+                    providerName(apt.getProviderID())
+                });
             }
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
         }
     }
-}
 
+    /**
+     * Lists the providers matching what was typed in the combo, or all of
+     * them when nothing was typed
+     */
+    private void fillProviderCombo(JComboBox<Provider> providerCombo, String prefix) {
+        providerCombo.removeAllItems();
+        try {
+            if (prefix.trim().isEmpty()) {
+                dataManager.streamProviders().forEach(providerCombo::addItem);
+            } else {
+                dataManager.completeProviders(prefix, PROVIDER_SUGGESTIONS).forEach(providerCombo::addItem);
+            }
+        } catch (Exception ex) {
+
+        }
+    }
+
+    /**
+     * Looks up a provider's name for display, or "N/A" if it cannot be resolved
+     */
+    private String providerName(String providerID) {
+        try {
+            Provider provider = dataManager.loadProvider(providerID);
+            return provider != null ? provider.getName() : "N/A";
+        } catch (Exception e) {
+            return "N/A";
+        }
+    }
+}
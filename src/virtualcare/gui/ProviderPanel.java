@@ -2,6 +2,7 @@ package virtualcare.gui;
 
 import virtualcare.model.*;
 import virtualcare.service.DataManager;
+import virtualcare.service.Page;
 import virtualcare.service.AuthenticationService;
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
@@ -11,12 +12,16 @@ import java.awt.event.ActionListener;
 import java.util.List;
 
 public class ProviderPanel extends JPanel {
+    // Rows fetched per click of Load More
+    private static final int PAGE_SIZE = 100;
+
     private DataManager dataManager;
     private AuthenticationService authService;
     private JTable appointmentTable;
     private DefaultTableModel tableModel;
     private JTextField nameField, specialtyField, availabilityField;
     private JTextField medicationField, dosageField;
+    private String appointmentCursor;
 
     public ProviderPanel(DataManager dataManager, AuthenticationService authService) {
         this.dataManager = dataManager;
@@ -234,11 +239,8 @@ public class ProviderPanel extends JPanel {
             try {
                 Provider selectedProvider = (Provider) providerCombo.getSelectedItem();
                 if (selectedProvider != null) {
-                    List<Appointment> appointments = dataManager.getAllAppointments();
-                    for (Appointment apt : appointments) {
-                        if (apt.getStatus().equals("Scheduled") && 
-                            apt.getProvider() != null && 
-                            apt.getProvider().getUserID().equals(selectedProvider.getUserID())) {
+                    for (Appointment apt : dataManager.getAppointmentsForProvider(selectedProvider.getUserID())) {
+                        if (apt.getAppointmentStatus() == AppointmentStatus.SCHEDULED) {
                             appointmentCombo.addItem(apt);
                         }
                     }
@@ -260,8 +262,7 @@ public class ProviderPanel extends JPanel {
                 super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
                 if (value instanceof Appointment) {
                     Appointment apt = (Appointment) value;
-                    String patientName = apt.getPatient() != null ? apt.getPatient().getName() : "N/A";
-                    setText(patientName + " - " + apt.getDateTime());
+                    setText(patientName(apt.getPatientID()) + " - " + apt.getDateTime());
                 }
                 return this;
             }
@@ -286,16 +287,24 @@ public class ProviderPanel extends JPanel {
                 }
                 
                 // Validate that appointment belongs to selected provider
-                if (appointment.getProvider() == null || 
-                    !appointment.getProvider().getUserID().equals(provider.getUserID())) {
+                if (!provider.getUserID().equals(appointment.getProviderID())) {
                     JOptionPane.showMessageDialog(this, "Selected appointment does not belong to the selected provider!");
                     return;
                 }
                 
                 provider.conductConsultation(appointment);
-                appointment.complete();
+                Bill bill = appointment.complete();
+                if (bill != null) {
+                    dataManager.saveBill(bill);
+                }
+                if (appointment.getEhrID() != null) {
+                    EHR ehr = dataManager.loadEHR(appointment.getEhrID());
+                    if (ehr != null) {
+                        ehr.updateRecord("Appointment completed on " + appointment.getDateTime());
+                        dataManager.saveEHR(ehr);
+                    }
+                }
                 dataManager.saveAppointment(appointment);
-                dataManager.saveProvider(provider);
                 JOptionPane.showMessageDialog(this, "Consultation completed!");
 
                 // Refresh appointments list
@@ -353,10 +362,7 @@ public class ProviderPanel extends JPanel {
         gbc.gridx = 1;
         JComboBox<Patient> patientCombo = new JComboBox<>();
         try {
-            List<Patient> patients = dataManager.getAllPatients();
-            for (Patient p : patients) {
-                patientCombo.addItem(p);
-            }
+            dataManager.streamPatients().forEach(patientCombo::addItem);
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Error loading patients: " + ex.getMessage());
         }
@@ -429,15 +435,14 @@ public class ProviderPanel extends JPanel {
                 EHR ehr = dataManager.loadEHR(ehrID);
                 if (ehr == null) {
                     ehr = new EHR(ehrID, "Diagnosis pending", "");
-                    ehr.setPatient(patient);
+                    ehr.setPatientID(patient.getUserID());
                 }
                 ehr.addPrescription(prescription);
-                prescription.setEhr(ehr);
+                prescription.setEhrID(ehr.getRecordID());
                 ehr.updateRecord("Prescription issued: " + medication);
                 
                 dataManager.savePrescription(prescription);
                 dataManager.saveEHR(ehr);
-                dataManager.saveProvider(provider);
                 JOptionPane.showMessageDialog(this, "Prescription issued successfully! ID: " + prescriptionID);
                 
                 // Clear fields after successful prescription
@@ -501,29 +506,16 @@ public class ProviderPanel extends JPanel {
         appointmentTable = new JTable(tableModel);
         JScrollPane scrollPane = new JScrollPane(appointmentTable);
 
+        JButton loadMoreBtn = new JButton("Load More");
+        loadMoreBtn.setEnabled(false);
+        loadMoreBtn.addActionListener(e ->
+                loadAppointments((Provider) providerFilterCombo.getSelectedItem(), loadMoreBtn));
+
         // Method to refresh appointments table
         Runnable refreshAppointmentsTable = () -> {
-            try {
-                Provider selectedProvider = (Provider) providerFilterCombo.getSelectedItem();
-                List<Appointment> appointments = dataManager.getAllAppointments();
-                tableModel.setRowCount(0);
-                for (Appointment apt : appointments) {
-                    // Filter by provider if one is selected
-                    if (selectedProvider == null || 
-                        (apt.getProvider() != null && apt.getProvider().getUserID().equals(selectedProvider.getUserID()))) {
-                        tableModel.addRow(new Object[]{
-                            apt.getAppointmentID(),
-                            apt.getDateTime(),
-                            apt.getStatus(),
-                            apt.getPatient() != null ? apt.getPatient().getName() : "N/A",
-                            apt.getProvider() != null ? apt.getProvider().getName() : "N/A"
-                        });
-                    }
-                }
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
-                ex.printStackTrace();
-            }
+            tableModel.setRowCount(0);
+            appointmentCursor = null;
+            loadAppointments((Provider) providerFilterCombo.getSelectedItem(), loadMoreBtn);
         };
 
         // Refresh when provider filter changes
@@ -533,6 +525,7 @@ public class ProviderPanel extends JPanel {
         JButton refreshBtn = new JButton("Refresh Appointments");
         refreshBtn.addActionListener(e -> refreshAppointmentsTable.run());
         buttonPanel.add(refreshBtn);
+        buttonPanel.add(loadMoreBtn);
 
         JButton deleteBtn = new JButton("Delete Selected Appointment");
         deleteBtn.addActionListener(e -> {
@@ -572,5 +565,54 @@ public class ProviderPanel extends JPanel {
 
         return panel;
     }
-}
 
+    /**
+     * Appends the next page of appointments to the table, only those of the
+     * given provider unless it is null
+     */
+    private void loadAppointments(Provider selectedProvider, JButton loadMoreBtn) {
+        try {
+            Page<Appointment> page = selectedProvider == null
+                    ? dataManager.getAppointmentsPage(appointmentCursor, PAGE_SIZE)
+                    : dataManager.getProviderAppointmentsPage(selectedProvider.getUserID(), appointmentCursor, PAGE_SIZE);
+            for (Appointment apt : page.getItems()) {
+                tableModel.addRow(new Object[]{
+                    apt.getAppointmentID(),
+                    apt.getDateTime(),
+                    apt.getStatus(),
+                    patientName(apt.getPatientID()),
+                    providerName(apt.getProviderID())
+                });
+            }
+            appointmentCursor = page.getNextCursor();
+            loadMoreBtn.setEnabled(page.hasMore());
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Looks up a patient's name for display, or "N/A" if it cannot be resolved
+     */
+    private String patientName(String patientID) {
+        try {
+            Patient patient = dataManager.loadPatient(patientID);
+            return patient != null ? patient.getName() : "N/A";
+        } catch (Exception e) {
+            return "N/A";
+        }
+    }
+
+    /**
+     * Looks up a provider's name for display, or "N/A" if it cannot be resolved
+     */
+    private String providerName(String providerID) {
+        try {
+            Provider provider = dataManager.loadProvider(providerID);
+            return provider != null ? provider.getName() : "N/A";
+        } catch (Exception e) {
+            return "N/A";
+        }
+    }
+}
@@ -1,39 +1,48 @@
 package virtualcare.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
 public class Admin extends User implements Serializable {
     private static final long serialVersionUID = 1L;
-    private List<Provider> managedProviders;
+    private List<String> managedProviderIDs;
 
     public Admin(String adminID, String name) {
         super(adminID, name);
-        this.managedProviders = new ArrayList<>();
+        this.managedProviderIDs = new ArrayList<>();
     }
 
     public Admin(String adminID, String name, String password) {
         super(adminID, name, password);
-        this.managedProviders = new ArrayList<>();
+        this.managedProviderIDs = new ArrayList<>();
     }
 
     public void createProviderAccount(String providerID, String name, String specialty, String availability) {
         Provider provider = new Provider(providerID, name, specialty, availability);
-        managedProviders.add(provider);
+        provider.setManagedByID(this.userID);
+        addProviderID(provider.getUserID());
     }
 
     public void manageSystem() {
         System.out.println("Admin " + this.name + " is managing the system.");
     }
 
-    public List<Provider> getManagedProviders() {
-        return new ArrayList<>(managedProviders);
+    public List<String> getManagedProviderIDs() {
+        return new ArrayList<>(managedProviderIDs);
     }
 
     public void addProvider(Provider provider) {
-        if (provider != null && !managedProviders.contains(provider)) {
-            managedProviders.add(provider);
+        if (provider != null) {
+            addProviderID(provider.getUserID());
+        }
+    }
+
+    public void addProviderID(String providerID) {
+        if (providerID != null && !managedProviderIDs.contains(providerID)) {
+            managedProviderIDs.add(providerID);
         }
     }
 
@@ -42,8 +51,22 @@ public class Admin extends User implements Serializable {
         return "Admin{" +
                 "adminID='" + userID + '\'' +
                 ", name='" + name + '\'' +
-                ", managedProviders=" + managedProviders.size() +
+                ", managedProviders=" + managedProviderIDs.size() +
                 '}';
     }
-}
 
+    /**
+     * Also reads records saved before references were stored as IDs, when
+     * the managed providers were serialized in full
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        managedProviderIDs = LegacyFields.stringList(fields, "managedProviderIDs");
+        Object managedProviders = LegacyFields.get(fields, "managedProviders");
+        in.registerValidation(() -> {
+            for (String id : LegacyFields.idsOf(managedProviders)) {
+                addProviderID(id);
+            }
+        }, 0);
+    }
+}
@@ -1,18 +1,26 @@
 package virtualcare.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.time.DateTimeException;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneOffset;
 
 public class Appointment implements Serializable {
     private static final long serialVersionUID = 1L;
+    // Start of an appointment without a date and time in dd/MM/yyyy HH:mm
+    public static final long NO_TIME = Long.MIN_VALUE;
     private String appointmentID;
     private String dateTime;
     private String status;
-    private Provider provider;
-    private Patient patient;
-    private EHR ehr;
-    private Bill bill;
+    private String providerID;
+    private String patientID;
+    private String ehrID;
+    private String billID;
+    // Held in full by a record saved before references were stored as IDs; only set on such a record as read
+    private transient EHR legacyEHR;
+    private transient Bill legacyBill;
 
     public Appointment(String appointmentID, String dateTime, String status) {
         this.appointmentID = appointmentID;
@@ -21,29 +29,32 @@ public class Appointment implements Serializable {
     }
 
     public void schedule() {
-        this.status = "Scheduled";
+        this.status = AppointmentStatus.SCHEDULED.getLabel();
         System.out.println("Appointment " + appointmentID + " scheduled for " + dateTime);
     }
 
     public void cancel() {
-        this.status = "Cancelled";
+        this.status = AppointmentStatus.CANCELLED.getLabel();
         System.out.println("Appointment " + appointmentID + " cancelled.");
     }
 
-    public void complete() {
-        this.status = "Completed";
+    /**
+     * Marks the appointment completed and generates its bill if it has none
+     * @return The newly generated bill, or null if no bill was generated
+     */
+    public Bill complete() {
+        this.status = AppointmentStatus.COMPLETED.getLabel();
         System.out.println("Appointment " + appointmentID + " completed.");
         
 
-        if (ehr != null) {
-            ehr.updateRecord("Appointment completed on " + dateTime);
-        }
-        
-
-        if (bill == null && patient != null) {
-            bill = new Bill("BILL-" + appointmentID, 150.0, "Pending", "Credit Card");
+        if (billID == null && patientID != null) {
+            Bill bill = new Bill("BILL-" + appointmentID, 150.0, "Pending", "Credit Card");
+            bill.setAppointmentID(appointmentID);
             bill.generate();
+            billID = bill.getBillID();
+            return bill;
         }
+        return null;
     }
 
     public String getAppointmentID() {
@@ -62,6 +73,84 @@ public class Appointment implements Serializable {
         this.dateTime = dateTime;
     }
 
+    /**
+     * Sort key of the date and time: minutes since 01/01/1970 00:00 on the
+     * same wall clock, or NO_TIME if it is missing or not in dd/MM/yyyy HH:mm
+     */
+    public long getStartMinutes() {
+        return dateTime != null ? parseMinutes(dateTime) : NO_TIME;
+    }
+
+    /**
+     * The date and time, or null if it is missing or not in dd/MM/yyyy HH:mm
+     */
+    public LocalDateTime getStartTime() {
+        long minutes = getStartMinutes();
+        return minutes != NO_TIME ? LocalDateTime.ofEpochSecond(minutes * 60, 0, ZoneOffset.UTC) : null;
+    }
+
+    public static long toMinutes(LocalDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    /**
+     * Parses the "dd/MM/yyyy HH:mm" format the booking form writes into
+     * minutes since the epoch, or returns NO_TIME if the text is not exactly
+     * in that format, so that every parsed time formats back to the same text
+     */
+    public static long parseMinutes(String dateTime) {
+        if (dateTime.length() != 16 || dateTime.charAt(2) != '/' || dateTime.charAt(5) != '/'
+                || dateTime.charAt(10) != ' ' || dateTime.charAt(13) != ':') {
+            return NO_TIME;
+        }
+        int day = digits(dateTime, 0, 2);
+        int month = digits(dateTime, 3, 5);
+        int year = digits(dateTime, 6, 10);
+        int hour = digits(dateTime, 11, 13);
+        int minute = digits(dateTime, 14, 16);
+        if (day < 0 || month < 0 || year < 0 || hour < 0 || minute < 0) {
+            return NO_TIME;
+        }
+        try {
+            return toMinutes(LocalDateTime.of(year, month, day, hour, minute));
+        } catch (DateTimeException e) {
+            return NO_TIME;
+        }
+    }
+
+    private static int digits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Formats minutes returned by {@link #parseMinutes} back into dd/MM/yyyy HH:mm
+     */
+    public static String formatMinutes(long minutes) {
+        LocalDateTime time = LocalDateTime.ofEpochSecond(minutes * 60, 0, ZoneOffset.UTC);
+        char[] text = "00/00/0000 00:00".toCharArray();
+        putDigits(text, 0, 2, time.getDayOfMonth());
+        putDigits(text, 3, 5, time.getMonthValue());
+        putDigits(text, 6, 10, time.getYear());
+        putDigits(text, 11, 13, time.getHour());
+        putDigits(text, 14, 16, time.getMinute());
+        return new String(text);
+    }
+
+    private static void putDigits(char[] text, int start, int end, int value) {
+        for (int i = end - 1; i >= start; i--) {
+            text[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
     public String getStatus() {
         return status;
     }
@@ -70,36 +159,64 @@ public class Appointment implements Serializable {
         this.status = status;
     }
 
-    public Provider getProvider() {
-        return provider;
+    /**
+     * The status, or null if it is missing or not one of {@link AppointmentStatus}
+     */
+    public AppointmentStatus getAppointmentStatus() {
+        return status != null ? AppointmentStatus.of(status) : null;
+    }
+
+    public void setStatus(AppointmentStatus status) {
+        this.status = status.getLabel();
+    }
+
+    public String getProviderID() {
+        return providerID;
+    }
+
+    public void setProviderID(String providerID) {
+        this.providerID = providerID;
+    }
+
+    public String getPatientID() {
+        return patientID;
     }
 
-    public void setProvider(Provider provider) {
-        this.provider = provider;
+    public void setPatientID(String patientID) {
+        this.patientID = patientID;
     }
 
-    public Patient getPatient() {
-        return patient;
+    public String getEhrID() {
+        return ehrID;
     }
 
-    public void setPatient(Patient patient) {
-        this.patient = patient;
+    public void setEhrID(String ehrID) {
+        this.ehrID = ehrID;
     }
 
-    public EHR getEhr() {
-        return ehr;
+    public String getBillID() {
+        return billID;
     }
 
-    public void setEhr(EHR ehr) {
-        this.ehr = ehr;
+    public void setBillID(String billID) {
+        this.billID = billID;
     }
 
-    public Bill getBill() {
-        return bill;
+    /**
+     * The EHR a record saved before references were stored as IDs held in
+     * full, or null
+     */
+    public EHR getLegacyEHR() {
+        return legacyEHR;
     }
 
-    public void setBill(Bill bill) {
-        this.bill = bill;
+    /**
+     * The bill a record saved before references were stored as IDs held in
+     * full, or null. Bills of completed appointments were only kept there,
+     * so they are imported into the bill store when the record is migrated.
+     */
+    public Bill getLegacyBill() {
+        return legacyBill;
     }
 
     @Override
@@ -108,9 +225,44 @@ public class Appointment implements Serializable {
                 "appointmentID='" + appointmentID + '\'' +
                 ", dateTime='" + dateTime + '\'' +
                 ", status='" + status + '\'' +
-                ", provider=" + (provider != null ? provider.getName() : "None") +
-                ", patient=" + (patient != null ? patient.getName() : "None") +
+                ", providerID=" + (providerID != null ? providerID : "None") +
+                ", patientID=" + (patientID != null ? patientID : "None") +
                 '}';
     }
-}
 
+    /**
+     * Also reads records saved before references were stored as IDs, when
+     * the provider, patient, EHR and bill were serialized in full
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        appointmentID = (String) fields.get("appointmentID", null);
+        dateTime = (String) fields.get("dateTime", null);
+        status = (String) fields.get("status", null);
+        providerID = (String) LegacyFields.get(fields, "providerID");
+        patientID = (String) LegacyFields.get(fields, "patientID");
+        ehrID = (String) LegacyFields.get(fields, "ehrID");
+        billID = (String) LegacyFields.get(fields, "billID");
+        Object provider = LegacyFields.get(fields, "provider");
+        Object patient = LegacyFields.get(fields, "patient");
+        Object ehr = LegacyFields.get(fields, "ehr");
+        Object bill = LegacyFields.get(fields, "bill");
+        // Referenced objects may still be incomplete inside a cycle, so read their IDs once the graph is done
+        in.registerValidation(() -> {
+            if (provider != null) {
+                providerID = LegacyFields.idOf(provider);
+            }
+            if (patient != null) {
+                patientID = LegacyFields.idOf(patient);
+            }
+            if (ehr != null) {
+                ehrID = LegacyFields.idOf(ehr);
+                legacyEHR = ehr instanceof EHR ? (EHR) ehr : null;
+            }
+            if (bill != null) {
+                billID = LegacyFields.idOf(bill);
+                legacyBill = bill instanceof Bill ? (Bill) bill : null;
+            }
+        }, 0);
+    }
+}
@@ -0,0 +1,41 @@
+package virtualcare.model;
+
+/**
+ * Statuses an appointment moves through. Appointments keep the status as
+ * its label, which is what is stored and shown.
+ *
+ * The declaration order is part of the appointment slot format; add new
+ * statuses at the end.
+ */
+public enum AppointmentStatus {
+    SCHEDULED("Scheduled"),
+    CANCELLED("Cancelled"),
+    COMPLETED("Completed");
+
+    private final String label;
+
+    AppointmentStatus(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * The status with the label, or null if there is none
+     */
+    public static AppointmentStatus of(String label) {
+        for (AppointmentStatus status : values()) {
+            if (status.label.equals(label)) {
+                return status;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -1,5 +1,7 @@
 package virtualcare.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 public class Bill implements Serializable {
@@ -8,7 +10,7 @@ public class Bill implements Serializable {
     private double amount;
     private String status;
     private String paymentMethod;
-    private Appointment appointment;
+    private String appointmentID;
 
     public Bill(String billID, double amount, String status, String paymentMethod) {
         this.billID = billID;
@@ -58,12 +60,12 @@ public class Bill implements Serializable {
         this.paymentMethod = paymentMethod;
     }
 
-    public Appointment getAppointment() {
-        return appointment;
+    public String getAppointmentID() {
+        return appointmentID;
     }
 
-    public void setAppointment(Appointment appointment) {
-        this.appointment = appointment;
+    public void setAppointmentID(String appointmentID) {
+        this.appointmentID = appointmentID;
     }
 
     @Override
@@ -75,5 +77,23 @@ public class Bill implements Serializable {
                 ", paymentMethod='" + paymentMethod + '\'' +
                 '}';
     }
-}
 
+    /**
+     * Also reads records saved before references were stored as IDs, when
+     * the appointment was serialized in full
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        billID = (String) fields.get("billID", null);
+        amount = fields.get("amount", 0.0);
+        status = (String) fields.get("status", null);
+        paymentMethod = (String) fields.get("paymentMethod", null);
+        appointmentID = (String) LegacyFields.get(fields, "appointmentID");
+        Object appointment = LegacyFields.get(fields, "appointment");
+        in.registerValidation(() -> {
+            if (appointment != null) {
+                appointmentID = LegacyFields.idOf(appointment);
+            }
+        }, 0);
+    }
+}
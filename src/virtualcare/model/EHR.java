@@ -1,5 +1,7 @@
 package virtualcare.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -9,14 +11,14 @@ public class EHR implements Serializable {
     private String recordID;
     private String diagnosis;
     private String treatmentPlan;
-    private List<Prescription> prescriptions;
-    private Patient patient;
+    private List<String> prescriptionIDs;
+    private String patientID;
 
     public EHR(String recordID, String diagnosis, String treatmentPlan) {
         this.recordID = recordID;
         this.diagnosis = diagnosis;
         this.treatmentPlan = treatmentPlan;
-        this.prescriptions = new ArrayList<>();
+        this.prescriptionIDs = new ArrayList<>();
     }
 
     public void updateRecord(String updateInfo) {
@@ -33,13 +35,19 @@ public class EHR implements Serializable {
         record.append("Record ID: ").append(recordID).append("\n");
         record.append("Diagnosis: ").append(diagnosis).append("\n");
         record.append("Treatment Plan: ").append(treatmentPlan).append("\n");
-        record.append("Prescriptions: ").append(prescriptions.size()).append("\n");
+        record.append("Prescriptions: ").append(prescriptionIDs.size()).append("\n");
         return record.toString();
     }
 
     public void addPrescription(Prescription prescription) {
-        if (prescription != null && !prescriptions.contains(prescription)) {
-            prescriptions.add(prescription);
+        if (prescription != null) {
+            addPrescriptionID(prescription.getPrescriptionID());
+        }
+    }
+
+    public void addPrescriptionID(String prescriptionID) {
+        if (prescriptionID != null && !prescriptionIDs.contains(prescriptionID)) {
+            prescriptionIDs.add(prescriptionID);
         }
     }
 
@@ -67,16 +75,16 @@ public class EHR implements Serializable {
         this.treatmentPlan = treatmentPlan;
     }
 
-    public List<Prescription> getPrescriptions() {
-        return new ArrayList<>(prescriptions);
+    public List<String> getPrescriptionIDs() {
+        return new ArrayList<>(prescriptionIDs);
     }
 
-    public Patient getPatient() {
-        return patient;
+    public String getPatientID() {
+        return patientID;
     }
 
-    public void setPatient(Patient patient) {
-        this.patient = patient;
+    public void setPatientID(String patientID) {
+        this.patientID = patientID;
     }
 
     @Override
@@ -85,8 +93,30 @@ public class EHR implements Serializable {
                 "recordID='" + recordID + '\'' +
                 ", diagnosis='" + diagnosis + '\'' +
                 ", treatmentPlan='" + treatmentPlan + '\'' +
-                ", prescriptions=" + prescriptions.size() +
+                ", prescriptions=" + prescriptionIDs.size() +
                 '}';
     }
-}
 
+    /**
+     * Also reads records saved before references were stored as IDs, when
+     * the prescriptions and patient were serialized in full
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        recordID = (String) fields.get("recordID", null);
+        diagnosis = (String) fields.get("diagnosis", null);
+        treatmentPlan = (String) fields.get("treatmentPlan", null);
+        prescriptionIDs = LegacyFields.stringList(fields, "prescriptionIDs");
+        patientID = (String) LegacyFields.get(fields, "patientID");
+        Object prescriptions = LegacyFields.get(fields, "prescriptions");
+        Object patient = LegacyFields.get(fields, "patient");
+        in.registerValidation(() -> {
+            for (String id : LegacyFields.idsOf(prescriptions)) {
+                addPrescriptionID(id);
+            }
+            if (patient != null) {
+                patientID = LegacyFields.idOf(patient);
+            }
+        }, 0);
+    }
+}
@@ -1,5 +1,7 @@
 package virtualcare.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
@@ -11,7 +13,7 @@ public class Feedback implements Serializable {
     private int rating;
     private String comment;
     private String date;
-    private Patient patient;
+    private String patientID;
 
     public Feedback(String feedbackID, int rating, String comment) {
         this.feedbackID = feedbackID;
@@ -60,12 +62,12 @@ public class Feedback implements Serializable {
         this.date = date;
     }
 
-    public Patient getPatient() {
-        return patient;
+    public String getPatientID() {
+        return patientID;
     }
 
-    public void setPatient(Patient patient) {
-        this.patient = patient;
+    public void setPatientID(String patientID) {
+        this.patientID = patientID;
     }
 
     @Override
@@ -77,5 +79,23 @@ public class Feedback implements Serializable {
                 ", date='" + date + '\'' +
                 '}';
     }
-}
 
+    /**
+     * Also reads records saved before references were stored as IDs, when
+     * the patient was serialized in full
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        feedbackID = (String) fields.get("feedbackID", null);
+        rating = fields.get("rating", 0);
+        comment = (String) fields.get("comment", null);
+        date = (String) fields.get("date", null);
+        patientID = (String) LegacyFields.get(fields, "patientID");
+        Object patient = LegacyFields.get(fields, "patient");
+        in.registerValidation(() -> {
+            if (patient != null) {
+                patientID = LegacyFields.idOf(patient);
+            }
+        }, 0);
+    }
+}
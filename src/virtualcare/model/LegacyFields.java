@@ -0,0 +1,64 @@
+package virtualcare.model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Helpers for reading objects serialized before references between entities
+ * were stored as IDs, when an appointment held its full patient, provider,
+ * EHR and bill, and so on.
+ */
+final class LegacyFields {
+
+    private LegacyFields() {
+    }
+
+    /**
+     * Returns a field of the serialized form, or null if the stream has no such field
+     */
+    static Object get(ObjectInputStream.GetField fields, String name) throws IOException {
+        if (fields.getObjectStreamClass().getField(name) == null) {
+            return null;
+        }
+        return fields.get(name, null);
+    }
+
+    static String idOf(Object entity) {
+        if (entity instanceof User) {
+            return ((User) entity).getUserID();
+        } else if (entity instanceof Appointment) {
+            return ((Appointment) entity).getAppointmentID();
+        } else if (entity instanceof EHR) {
+            return ((EHR) entity).getRecordID();
+        } else if (entity instanceof Bill) {
+            return ((Bill) entity).getBillID();
+        } else if (entity instanceof Feedback) {
+            return ((Feedback) entity).getFeedbackID();
+        } else if (entity instanceof Prescription) {
+            return ((Prescription) entity).getPrescriptionID();
+        }
+        return null;
+    }
+
+    static List<String> idsOf(Object entities) {
+        List<String> ids = new ArrayList<>();
+        if (entities instanceof Collection) {
+            for (Object entity : (Collection<?>) entities) {
+                String id = idOf(entity);
+                if (id != null && !ids.contains(id)) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<String> stringList(ObjectInputStream.GetField fields, String name) throws IOException {
+        Object value = get(fields, name);
+        return value instanceof List ? new ArrayList<>((List<String>) value) : new ArrayList<>();
+    }
+}
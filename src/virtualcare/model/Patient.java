@@ -1,5 +1,7 @@
 package virtualcare.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -9,23 +11,25 @@ public class Patient extends User implements Serializable {
     private static final long serialVersionUID = 1L;
     private String contactInfo;
     private String medicalHistory;
-    private List<Appointment> appointments;
-    private List<Feedback> feedbacks;
+    // Appointments booked before they were looked up by patient; new bookings are not added
+    private List<String> appointmentIDs;
+    // Feedback given before feedback recorded its patient; new feedback is not added
+    private List<String> feedbackIDs;
 
     public Patient(String patientID, String name, String contactInfo, String medicalHistory) {
         super(patientID, name);
         this.contactInfo = contactInfo;
         this.medicalHistory = medicalHistory;
-        this.appointments = new ArrayList<>();
-        this.feedbacks = new ArrayList<>();
+        this.appointmentIDs = new ArrayList<>();
+        this.feedbackIDs = new ArrayList<>();
     }
 
     public Patient(String patientID, String name, String contactInfo, String medicalHistory, String password) {
         super(patientID, name, password);
         this.contactInfo = contactInfo;
         this.medicalHistory = medicalHistory;
-        this.appointments = new ArrayList<>();
-        this.feedbacks = new ArrayList<>();
+        this.appointmentIDs = new ArrayList<>();
+        this.feedbackIDs = new ArrayList<>();
     }
 
     public void register() {
@@ -43,12 +47,10 @@ public class Patient extends User implements Serializable {
     }
 
     public Appointment bookAppointment(String appointmentID, String dateTime, Provider provider) {
-        Appointment appointment = new Appointment(appointmentID, dateTime, "Scheduled");
-        appointment.setProvider(provider);
-        appointment.setPatient(this);
-        appointments.add(appointment);
+        Appointment appointment = new Appointment(appointmentID, dateTime, AppointmentStatus.SCHEDULED.getLabel());
+        appointment.setPatientID(this.userID);
         if (provider != null) {
-            provider.addAppointment(appointment);
+            appointment.setProviderID(provider.getUserID());
         }
         System.out.println("Patient " + this.name + " booked appointment: " + appointmentID);
         return appointment;
@@ -62,7 +64,7 @@ public class Patient extends User implements Serializable {
 
     public Feedback provideFeedback(String feedbackID, int rating, String comment) {
         Feedback feedback = new Feedback(feedbackID, rating, comment);
-        feedbacks.add(feedback);
+        feedback.setPatientID(this.userID);
         System.out.println("Patient " + this.name + " provided feedback with rating: " + rating);
         return feedback;
     }
@@ -83,12 +85,32 @@ public class Patient extends User implements Serializable {
         this.medicalHistory = medicalHistory;
     }
 
-    public List<Appointment> getAppointments() {
-        return new ArrayList<>(appointments);
+    /**
+     * Appointment IDs kept by records saved before appointments were looked
+     * up by patient; use DataManager.getAppointmentsForPatient instead
+     */
+    public List<String> getAppointmentIDs() {
+        return new ArrayList<>(appointmentIDs);
     }
 
-    public List<Feedback> getFeedbacks() {
-        return new ArrayList<>(feedbacks);
+    /**
+     * Feedback IDs kept by records saved before feedback recorded its
+     * patient; use DataManager.getFeedbacksForPatient instead
+     */
+    public List<String> getFeedbackIDs() {
+        return new ArrayList<>(feedbackIDs);
+    }
+
+    public void addAppointmentID(String appointmentID) {
+        if (appointmentID != null && !appointmentIDs.contains(appointmentID)) {
+            appointmentIDs.add(appointmentID);
+        }
+    }
+
+    public void addFeedbackID(String feedbackID) {
+        if (feedbackID != null && !feedbackIDs.contains(feedbackID)) {
+            feedbackIDs.add(feedbackID);
+        }
     }
 
     @Override
@@ -100,5 +122,26 @@ public class Patient extends User implements Serializable {
                 ", medicalHistory='" + medicalHistory + '\'' +
                 '}';
     }
-}
 
+    /**
+     * Also reads records saved before references were stored as IDs, when
+     * the appointments and feedbacks were serialized in full
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        contactInfo = (String) fields.get("contactInfo", null);
+        medicalHistory = (String) fields.get("medicalHistory", null);
+        appointmentIDs = LegacyFields.stringList(fields, "appointmentIDs");
+        feedbackIDs = LegacyFields.stringList(fields, "feedbackIDs");
+        Object appointments = LegacyFields.get(fields, "appointments");
+        Object feedbacks = LegacyFields.get(fields, "feedbacks");
+        in.registerValidation(() -> {
+            for (String id : LegacyFields.idsOf(appointments)) {
+                addAppointmentID(id);
+            }
+            for (String id : LegacyFields.idsOf(feedbacks)) {
+                addFeedbackID(id);
+            }
+        }, 0);
+    }
+}
@@ -1,5 +1,7 @@
 package virtualcare.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
@@ -11,7 +13,7 @@ public class Prescription implements Serializable {
     private String medication;
     private String dosage;
     private String issuedDate;
-    private EHR ehr;
+    private String ehrID;
 
     public Prescription(String prescriptionID, String medication, String dosage) {
         this.prescriptionID = prescriptionID;
@@ -60,12 +62,12 @@ public class Prescription implements Serializable {
         this.issuedDate = issuedDate;
     }
 
-    public EHR getEhr() {
-        return ehr;
+    public String getEhrID() {
+        return ehrID;
     }
 
-    public void setEhr(EHR ehr) {
-        this.ehr = ehr;
+    public void setEhrID(String ehrID) {
+        this.ehrID = ehrID;
     }
 
     @Override
@@ -77,5 +79,23 @@ public class Prescription implements Serializable {
                 ", issuedDate='" + issuedDate + '\'' +
                 '}';
     }
-}
 
+    /**
+     * Also reads records saved before references were stored as IDs, when
+     * the EHR was serialized in full
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        prescriptionID = (String) fields.get("prescriptionID", null);
+        medication = (String) fields.get("medication", null);
+        dosage = (String) fields.get("dosage", null);
+        issuedDate = (String) fields.get("issuedDate", null);
+        ehrID = (String) LegacyFields.get(fields, "ehrID");
+        Object ehr = LegacyFields.get(fields, "ehr");
+        in.registerValidation(() -> {
+            if (ehr != null) {
+                ehrID = LegacyFields.idOf(ehr);
+            }
+        }, 0);
+    }
+}
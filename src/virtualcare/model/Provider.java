@@ -1,5 +1,7 @@
 package virtualcare.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -9,21 +11,22 @@ public class Provider extends User implements Serializable {
     private static final long serialVersionUID = 1L;
     private String specialty;
     private String availability;
-    private List<Appointment> appointments;
-    private Admin managedBy;
+    // Appointments booked before they were looked up by provider; new bookings are not added
+    private List<String> appointmentIDs;
+    private String managedByID;
 
     public Provider(String providerID, String name, String specialty, String availability) {
         super(providerID, name);
         this.specialty = specialty;
         this.availability = availability;
-        this.appointments = new ArrayList<>();
+        this.appointmentIDs = new ArrayList<>();
     }
 
     public Provider(String providerID, String name, String specialty, String availability, String password) {
         super(providerID, name, password);
         this.specialty = specialty;
         this.availability = availability;
-        this.appointments = new ArrayList<>();
+        this.appointmentIDs = new ArrayList<>();
     }
 
     public void manageSchedule() {
@@ -31,7 +34,7 @@ public class Provider extends User implements Serializable {
     }
 
     public void conductConsultation(Appointment appointment) {
-        if (appointment != null && appointments.contains(appointment)) {
+        if (appointment != null && userID.equals(appointment.getProviderID())) {
             System.out.println("Provider " + this.name + " is conducting consultation for appointment " + appointment.getAppointmentID());
         }
     }
@@ -58,22 +61,26 @@ public class Provider extends User implements Serializable {
         this.availability = availability;
     }
 
-    public List<Appointment> getAppointments() {
-        return new ArrayList<>(appointments);
+    /**
+     * Appointment IDs kept by records saved before appointments were looked
+     * up by provider; use DataManager.getAppointmentsForProvider instead
+     */
+    public List<String> getAppointmentIDs() {
+        return new ArrayList<>(appointmentIDs);
     }
 
-    public void addAppointment(Appointment appointment) {
-        if (appointment != null && !appointments.contains(appointment)) {
-            appointments.add(appointment);
+    public void addAppointmentID(String appointmentID) {
+        if (appointmentID != null && !appointmentIDs.contains(appointmentID)) {
+            appointmentIDs.add(appointmentID);
         }
     }
 
-    public Admin getManagedBy() {
-        return managedBy;
+    public String getManagedByID() {
+        return managedByID;
     }
 
-    public void setManagedBy(Admin managedBy) {
-        this.managedBy = managedBy;
+    public void setManagedByID(String managedByID) {
+        this.managedByID = managedByID;
     }
 
     @Override
@@ -85,5 +92,26 @@ public class Provider extends User implements Serializable {
                 ", availability='" + availability + '\'' +
                 '}';
     }
-}
 
+    /**
+     * Also reads records saved before references were stored as IDs, when
+     * the appointments and managing admin were serialized in full
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        specialty = (String) fields.get("specialty", null);
+        availability = (String) fields.get("availability", null);
+        appointmentIDs = LegacyFields.stringList(fields, "appointmentIDs");
+        managedByID = (String) LegacyFields.get(fields, "managedByID");
+        Object appointments = LegacyFields.get(fields, "appointments");
+        Object managedBy = LegacyFields.get(fields, "managedBy");
+        in.registerValidation(() -> {
+            for (String id : LegacyFields.idsOf(appointments)) {
+                addAppointmentID(id);
+            }
+            if (managedBy != null) {
+                managedByID = LegacyFields.idOf(managedBy);
+            }
+        }, 0);
+    }
+}
@@ -1,58 +1,221 @@
 package virtualcare.service;
 
 import virtualcare.model.*;
+import virtualcare.service.codec.ModelCodecs;
+import virtualcare.service.storage.EditDistanceIndex;
+import virtualcare.service.storage.IdOrderIndex;
+import virtualcare.service.storage.InMemoryBackend;
+import virtualcare.service.storage.JournalBackend;
+import virtualcare.service.storage.KeyIndex;
+import virtualcare.service.storage.MappedBackend;
+import virtualcare.service.storage.PrefixIndex;
+import virtualcare.service.storage.RecordStore;
+import virtualcare.service.storage.StorageBackend;
+import virtualcare.service.storage.TimeIndex;
+import virtualcare.service.storage.TrigramIndex;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public class DataManager {
-    private static final String DATA_DIR = "data/";
-    private static final String PATIENTS_FILE = DATA_DIR + "patients.dat";
-    private static final String PROVIDERS_FILE = DATA_DIR + "providers.dat";
-    private static final String ADMINS_FILE = DATA_DIR + "admins.dat";
-    private static final String APPOINTMENTS_FILE = DATA_DIR + "appointments.dat";
-    private static final String EHRS_FILE = DATA_DIR + "ehrs.dat";
-    private static final String BILLS_FILE = DATA_DIR + "bills.dat";
-    private static final String FEEDBACKS_FILE = DATA_DIR + "feedbacks.dat";
-    private static final String PRESCRIPTIONS_FILE = DATA_DIR + "prescriptions.dat";
-
-    private Map<String, Patient> patients;
-    private Map<String, Provider> providers;
-    private Map<String, Admin> admins;
-    private Map<String, Appointment> appointments;
-    private Map<String, EHR> ehrs;
-    private Map<String, Bill> bills;
-    private Map<String, Feedback> feedbacks;
-    private Map<String, Prescription> prescriptions;
+    private static final String DATA_DIR = System.getProperty("virtualcare.dataDir", "data");
+    private static final String COUNTERS_FILE = "counters.dat";
+    // Milliseconds saves may wait to be written together; 0 writes every save synchronously
+    private static final long COMMIT_WINDOW_MS = Long.getLong("virtualcare.commitWindowMs", 50);
+    // Longest journal replay a restart should need before a snapshot is taken
+    private static final long REPLAY_BUDGET_MS = Long.getLong("virtualcare.replayBudgetMs", 200);
+    // Hash partitions of the patient and appointment stores when their directories are created
+    private static final int SHARD_COUNT = Integer.getInteger("virtualcare.shards", 0);
+    // Threads loading stores at startup; 1 loads them one after another
+    private static final int LOADER_THREADS = Integer.getInteger("virtualcare.loaderThreads",
+            Runtime.getRuntime().availableProcessors());
+    // Edits a fuzzy patient search allows when no threshold is given
+    private static final int FUZZY_DISTANCE = Integer.getInteger("virtualcare.fuzzyDistance", 2);
+    // Search matches a page sorts; with more, the page walks the listing order instead
+    private static final int SORTED_MATCHES_LIMIT = Integer.getInteger("virtualcare.sortedMatches", 4096);
+
+    private final StorageBackend backend;
+    private final ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "DataManager-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private RecordStore<Patient> patients;
+    private RecordStore<Provider> providers;
+    private RecordStore<Admin> admins;
+    private RecordStore<Appointment> appointments;
+    private RecordStore<EHR> ehrs;
+    private RecordStore<Bill> bills;
+    private RecordStore<Feedback> feedbacks;
+    private RecordStore<Prescription> prescriptions;
+
+    // Listing order of the stores that are paged
+    private final IdOrderIndex<Patient> patientOrder = new IdOrderIndex<>();
+    private final IdOrderIndex<Provider> providerOrder = new IdOrderIndex<>();
+    private final IdOrderIndex<Appointment> appointmentOrder = new IdOrderIndex<>();
+    private final IdOrderIndex<Bill> billOrder = new IdOrderIndex<>();
+    private final IdOrderIndex<Feedback> feedbackOrder = new IdOrderIndex<>();
+    private final KeyIndex<Appointment> appointmentsByProvider = new KeyIndex<>(Appointment::getProviderID);
+    // What a patient's dashboard shows; prescriptions are filed under the patient's EHR
+    private final KeyIndex<Appointment> appointmentsByPatient = new KeyIndex<>(Appointment::getPatientID);
+    private final KeyIndex<Feedback> feedbacksByPatient = new KeyIndex<>(Feedback::getPatientID);
+    private final KeyIndex<Prescription> prescriptionsByEHR = new KeyIndex<>(Prescription::getEhrID);
+    private final KeyIndex<Appointment> appointmentsByStatus = new KeyIndex<>(Appointment::getStatus);
+    // Appointments without a bill, by status
+    private final KeyIndex<Appointment> unbilledAppointments =
+            new KeyIndex<>(apt -> apt.getBillID() == null ? apt.getStatus() : null);
+    // Users by case-folded name, for the find*ByName lookups
+    private final KeyIndex<Patient> patientsByName = new KeyIndex<>(p -> nameKey(p.getName()));
+    private final KeyIndex<Provider> providersByName = new KeyIndex<>(p -> nameKey(p.getName()));
+    private final KeyIndex<Admin> adminsByName = new KeyIndex<>(a -> nameKey(a.getName()));
+    // Patients by the sound of their name, to catch the same patient registering twice
+    private final KeyIndex<Patient> patientsBySound = new KeyIndex<>(p -> Soundex.of(p.getName()));
+    // Patient names within an edit distance of a misspelling
+    private final EditDistanceIndex<Patient> patientNameDistances =
+            new EditDistanceIndex<>(p -> nameKey(p.getName()));
+    // Providers by the words of their name and specialty, for type-ahead
+    private final PrefixIndex<Provider> providerPrefixes =
+            new PrefixIndex<>(p -> new String[]{nameKey(p.getName()), nameKey(p.getSpecialty())});
+    private final TimeIndex<Appointment> appointmentTimes =
+            new TimeIndex<>(Appointment::getStartMinutes, Appointment::getProviderID);
+    // The fields the searches match
+    private final TrigramIndex<Patient> patientSearch =
+            new TrigramIndex<>(p -> new String[]{p.getUserID(), p.getName(), p.getContactInfo()});
+    private final TrigramIndex<Provider> providerSearch =
+            new TrigramIndex<>(p -> new String[]{p.getUserID(), p.getName(), p.getSpecialty()});
+    private final TrigramIndex<Appointment> appointmentSearch =
+            new TrigramIndex<>(a -> new String[]{a.getAppointmentID(), a.getStatus(), a.getDateTime()});
     
-    private static final String COUNTERS_FILE = DATA_DIR + "counters.dat";
-    private int patientCounter = 1;
-    private int providerCounter = 1;
-    private int adminCounter = 1;
-    private int appointmentCounter = 1;
-    private int ehrCounter = 1;
-    private int billCounter = 1;
-    private int feedbackCounter = 1;
-    private int prescriptionCounter = 1;
+    private static final int ID_BLOCK_SIZE = 1000;
+    private final File countersFile;
+    private final Object counterLock = new Object();
+    private final IdSequence patientIDs;
+    private final IdSequence providerIDs;
+    private final IdSequence adminIDs;
+    private final IdSequence appointmentIDs;
+    private final IdSequence feedbackIDs;
+    private final IdSequence prescriptionIDs;
+    private final List<IdSequence> sequences;
 
+    /**
+     * Uses the storage backend named by -Dvirtualcare.storage: journal (the
+     * default), mmap or memory
+     */
     public DataManager() {
-        patients = new HashMap<>();
-        providers = new HashMap<>();
-        admins = new HashMap<>();
-        appointments = new HashMap<>();
-        ehrs = new HashMap<>();
-        bills = new HashMap<>();
-        feedbacks = new HashMap<>();
-        prescriptions = new HashMap<>();
-        
-
-        File dataDir = new File(DATA_DIR);
-        if (!dataDir.exists()) {
-            dataDir.mkdirs();
-        }
-        
+        this(createBackend(System.getProperty("virtualcare.storage", "journal")));
+    }
 
+    public DataManager(StorageBackend backend) {
+        this.backend = backend;
+        patients = backend.open("patients", Patient::getUserID, ModelCodecs.PATIENT, true);
+        providers = backend.open("providers", Provider::getUserID, ModelCodecs.PROVIDER, false);
+        admins = backend.open("admins", Admin::getUserID, ModelCodecs.ADMIN, false);
+        appointments = backend.open("appointments", Appointment::getAppointmentID, ModelCodecs.APPOINTMENT,
+                ModelCodecs.APPOINTMENT_SLOT, true);
+        ehrs = backend.open("ehrs", EHR::getRecordID, ModelCodecs.EHR, false);
+        bills = backend.open("bills", Bill::getBillID, ModelCodecs.BILL, false);
+        feedbacks = backend.open("feedbacks", Feedback::getFeedbackID, ModelCodecs.FEEDBACK, false);
+        prescriptions = backend.open("prescriptions", Prescription::getPrescriptionID, ModelCodecs.PRESCRIPTION, false);
+        // Indexes are filled as the stores load, so they are added first
+        patients.addIndex(patientOrder);
+        providers.addIndex(providerOrder);
+        appointments.addIndex(appointmentOrder);
+        appointments.addIndex(appointmentsByProvider);
+        appointments.addIndex(appointmentsByPatient);
+        appointments.addIndex(appointmentTimes);
+        appointments.addIndex(appointmentsByStatus);
+        appointments.addIndex(unbilledAppointments);
+        appointments.addIndex(appointmentSearch);
+        patients.addIndex(patientSearch);
+        providers.addIndex(providerSearch);
+        patients.addIndex(patientsByName);
+        providers.addIndex(providersByName);
+        admins.addIndex(adminsByName);
+        providers.addIndex(providerPrefixes);
+        patients.addIndex(patientNameDistances);
+        patients.addIndex(patientsBySound);
+        bills.addIndex(billOrder);
+        feedbacks.addIndex(feedbackOrder);
+        feedbacks.addIndex(feedbacksByPatient);
+        prescriptions.addIndex(prescriptionsByEHR);
+
+        patientIDs = createSequence("patient", "PAT", patients);
+        providerIDs = createSequence("provider", "PROV", providers);
+        adminIDs = createSequence("admin", "ADM", admins);
+        appointmentIDs = createSequence("appointment", "APT", appointments);
+        feedbackIDs = createSequence("feedback", "FB", feedbacks);
+        prescriptionIDs = createSequence("prescription", "PRES", prescriptions);
+        sequences = Arrays.asList(patientIDs, providerIDs, adminIDs, appointmentIDs, feedbackIDs, prescriptionIDs);
+        // Without a data directory the sequences only live in the stores
+        countersFile = backend.getDirectory() != null ? new File(backend.getDirectory(), COUNTERS_FILE) : null;
+
+        // While the files from before references were stored as IDs are still in place
+        importLegacyRecords();
         loadCounters();
+        // Only the accounts needed to log in are waited for
+        loadStores();
         initializeDefaultAccounts();
+        // Saves still waiting for the background writer are written on exit
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "DataManager-shutdown"));
+    }
+
+    private static StorageBackend createBackend(String name) {
+        switch (name) {
+            case "journal":
+                return new JournalBackend(new File(DATA_DIR), COMMIT_WINDOW_MS, REPLAY_BUDGET_MS, SHARD_COUNT,
+                        LOADER_THREADS);
+            case "mmap":
+                return new MappedBackend(new File(DATA_DIR));
+            case "memory":
+                return new InMemoryBackend();
+            default:
+                throw new IllegalArgumentException("Unknown storage backend: " + name);
+        }
+    }
+
+    /**
+     * Rewrites the patient and appointment stores of the journal backend with
+     * a new shard count. Must only be run while the application is stopped.
+     *
+     * @return Number of records rewritten, by store name
+     */
+    public static Map<String, Integer> reshard(int shardCount) throws IOException, ClassNotFoundException {
+        File directory = new File(DATA_DIR);
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("patients", JournalBackend.reshard(directory, "patients", shardCount,
+                Patient::getUserID, ModelCodecs.PATIENT));
+        counts.put("appointments", JournalBackend.reshard(directory, "appointments", shardCount,
+                Appointment::getAppointmentID, ModelCodecs.APPOINTMENT));
+        return counts;
+    }
+
+    /**
+     * Creates the ID sequence for one store. Each leased block is recorded in
+     * counters.dat and as the high-water mark in the store's journal header.
+     */
+    private IdSequence createSequence(String key, String prefix, RecordStore<?> store) {
+        return new IdSequence(key, prefix, ID_BLOCK_SIZE, sequence -> {
+            synchronized (counterLock) {
+                saveCounters();
+            }
+            try {
+                store.writeHighWaterMark(sequence.getLimit());
+            } catch (IOException e) {
+                System.err.println("Error saving ID high-water mark: " + e.getMessage());
+            }
+        });
     }
     
     /**
@@ -63,32 +226,31 @@ public class DataManager {
      */
     private void initializeDefaultAccounts() {
         try {
-            loadAllAdmins();
-            loadAllProviders();
+            admins.refresh();
+            providers.refresh();
             
             // Check if main admin exists
-            if (!admins.containsKey("ADM1")) {
+            if (!admins.contains("ADM1")) {
                 Admin mainAdmin = new Admin("ADM1", "Main Admin", "admin123");
-                admins.put("ADM1", mainAdmin);
-                saveAllAdmins();
+                admins.put(mainAdmin);
+                adminIDs.skipPast(mainAdmin.getUserID());
                 System.out.println("Default admin account created: ADM1 / admin123");
             }
             
             // Check if main provider exists
-            if (!providers.containsKey("PROV1")) {
+            if (!providers.contains("PROV1")) {
                 Admin mainAdmin = admins.get("ADM1");
                 if (mainAdmin == null) {
                     mainAdmin = new Admin("ADM1", "Main Admin", "admin123");
-                    admins.put("ADM1", mainAdmin);
-                    saveAllAdmins();
+                    admins.put(mainAdmin);
                 }
                 
                 Provider mainProvider = new Provider("PROV1", "Dr. Main Provider", "General Practice", "Monday-Friday 9AM-5PM", "provider123");
-                mainProvider.setManagedBy(mainAdmin);
+                mainProvider.setManagedByID(mainAdmin.getUserID());
                 mainAdmin.addProvider(mainProvider);
-                providers.put("PROV1", mainProvider);
-                saveAllProviders();
-                saveAllAdmins();
+                providers.put(mainProvider);
+                providerIDs.skipPast(mainProvider.getUserID());
+                admins.put(mainAdmin);
                 System.out.println("Default provider account created: PROV1 / provider123");
             }
         } catch (Exception e) {
@@ -99,134 +261,200 @@ public class DataManager {
     }
     
 
+    /**
+     * Carries over what the .dat files from before references were stored
+     * as IDs only hold implicitly: the bills and EHRs held inside
+     * appointments, since completed appointments kept their bill nowhere
+     * else, and the patient of each feedback, which only the patient's
+     * feedback list recorded. Runs before the stores load and migrate the
+     * files, and skips what is already stored, so an interrupted import is
+     * finished on the next start.
+     */
+    private void importLegacyRecords() {
+        File directory = backend.getDirectory();
+        if (directory == null) {
+            return;
+        }
+        File legacyAppointments = new File(directory, "appointments.dat");
+        if (legacyAppointments.exists()) {
+            importLegacyBillsAndEHRs(legacyAppointments);
+        }
+        File legacyPatients = new File(directory, "patients.dat");
+        if (legacyPatients.exists()) {
+            importLegacyFeedbackPatients(legacyPatients);
+        }
+    }
+
+    private void importLegacyBillsAndEHRs(File legacyAppointments) {
+        try {
+            List<Appointment> legacy = readLegacyFile(legacyAppointments);
+            ehrs.refresh();
+            bills.refresh();
+            for (Appointment appointment : legacy) {
+                EHR ehr = appointment.getLegacyEHR();
+                if (ehr != null && ehr.getRecordID() != null && !ehrs.contains(ehr.getRecordID())) {
+                    ehrs.put(ehr);
+                }
+                Bill bill = appointment.getLegacyBill();
+                if (bill != null && bill.getBillID() != null && !bills.contains(bill.getBillID())) {
+                    if (bill.getAppointmentID() == null) {
+                        bill.setAppointmentID(appointment.getAppointmentID());
+                    }
+                    bills.put(bill);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error importing bills and EHRs from " + legacyAppointments + ": " + e.getMessage());
+        }
+    }
+
+    private void importLegacyFeedbackPatients(File legacyPatients) {
+        try {
+            List<Patient> legacy = readLegacyFile(legacyPatients);
+            feedbacks.refresh();
+            for (Patient patient : legacy) {
+                for (String feedbackID : patient.getFeedbackIDs()) {
+                    Feedback feedback = feedbacks.get(feedbackID);
+                    if (feedback != null && feedback.getPatientID() == null) {
+                        feedback.setPatientID(patient.getUserID());
+                        feedbacks.put(feedback);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error linking feedback to patients from " + legacyPatients + ": " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> readLegacyFile(File file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+            return (List<T>) ois.readObject();
+        }
+    }
+
+    /**
+     * Restores each ID sequence from the end of its last leased block, taking
+     * the higher of counters.dat and the high-water mark in the journal header
+     */
     private void loadCounters() {
-        File file = new File(COUNTERS_FILE);
-        if (file.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(COUNTERS_FILE))) {
-                Map<String, Integer> counters = (Map<String, Integer>) ois.readObject();
-                patientCounter = counters.getOrDefault("patient", 1);
-                providerCounter = counters.getOrDefault("provider", 1);
-                adminCounter = counters.getOrDefault("admin", 1);
-                appointmentCounter = counters.getOrDefault("appointment", 1);
-                ehrCounter = counters.getOrDefault("ehr", 1);
-                billCounter = counters.getOrDefault("bill", 1);
-                feedbackCounter = counters.getOrDefault("feedback", 1);
-                prescriptionCounter = counters.getOrDefault("prescription", 1);
+        Map<String, Integer> counters = new HashMap<>();
+        if (countersFile != null && countersFile.exists()) {
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(countersFile))) {
+                counters = (Map<String, Integer>) ois.readObject();
             } catch (Exception e) {
 
             }
         }
 
-        updateCountersFromData();
+        restoreSequence(patientIDs, patients, Patient::getUserID, counters);
+        restoreSequence(providerIDs, providers, Provider::getUserID, counters);
+        restoreSequence(adminIDs, admins, Admin::getUserID, counters);
+        restoreSequence(appointmentIDs, appointments, Appointment::getAppointmentID, counters);
+        restoreSequence(feedbackIDs, feedbacks, Feedback::getFeedbackID, counters);
+        restoreSequence(prescriptionIDs, prescriptions, Prescription::getPrescriptionID, counters);
+    }
+
+    private <T extends Serializable> void restoreSequence(IdSequence sequence, RecordStore<T> store,
+            Function<T, String> idOf, Map<String, Integer> counters) {
+        long mark = -1;
+        try {
+            mark = store.readHighWaterMark();
+        } catch (IOException e) {
+
+        }
+        Integer persisted = counters.get(sequence.getKey());
+        if (persisted != null || mark >= 0) {
+            sequence.restore(Math.max(persisted != null ? persisted : 1, mark));
+            return;
+        }
+        // Neither a counter nor a mark, e.g. data from before marks were kept: scan the IDs once
+        try {
+            store.refresh();
+            for (T record : store.values()) {
+                sequence.skipPast(idOf.apply(record));
+            }
+        } catch (Exception e) {
+
+        }
     }
     
+    /**
+     * Persists the end of every leased block. The file is replaced atomically
+     * so a crash mid-write cannot lose a lease and cause IDs to be reused.
+     */
     private void saveCounters() {
+        if (countersFile == null) {
+            return;
+        }
         try {
             Map<String, Integer> counters = new HashMap<>();
-            counters.put("patient", patientCounter);
-            counters.put("provider", providerCounter);
-            counters.put("admin", adminCounter);
-            counters.put("appointment", appointmentCounter);
-            counters.put("ehr", ehrCounter);
-            counters.put("bill", billCounter);
-            counters.put("feedback", feedbackCounter);
-            counters.put("prescription", prescriptionCounter);
+            for (IdSequence sequence : sequences) {
+                counters.put(sequence.getKey(), Math.toIntExact(sequence.getLimit()));
+            }
             
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(COUNTERS_FILE))) {
+            File temp = new File(countersFile.getPath() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(temp);
+                 ObjectOutputStream oos = new ObjectOutputStream(fos)) {
                 oos.writeObject(counters);
+                oos.flush();
+                fos.getFD().sync();
             }
+            Files.move(temp.toPath(), countersFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
-
+            System.err.println("Error saving ID counters: " + e.getMessage());
         }
     }
-    
-    private void updateCountersFromData() {
-        try {
-            loadAllPatients();
-            loadAllProviders();
-            loadAllAdmins();
-            loadAllAppointments();
-            loadAllEHRs();
-            loadAllBills();
-            loadAllFeedbacks();
-            loadAllPrescriptions();
-            
 
-            for (Patient p : patients.values()) {
-                try {
-                    int id = Integer.parseInt(p.getUserID().replace("PAT", ""));
-                    if (id >= patientCounter) patientCounter = id + 1;
-                } catch (NumberFormatException e) {}
-            }
-            for (Provider p : providers.values()) {
-                try {
-                    int id = Integer.parseInt(p.getUserID().replace("PROV", ""));
-                    if (id >= providerCounter) providerCounter = id + 1;
-                } catch (NumberFormatException e) {}
-            }
-            for (Admin a : admins.values()) {
-                try {
-                    int id = Integer.parseInt(a.getUserID().replace("ADM", ""));
-                    if (id >= adminCounter) adminCounter = id + 1;
-                } catch (NumberFormatException e) {}
-            }
-            for (Appointment a : appointments.values()) {
-                try {
-                    int id = Integer.parseInt(a.getAppointmentID().replace("APT", ""));
-                    if (id >= appointmentCounter) appointmentCounter = id + 1;
-                } catch (NumberFormatException e) {}
-            }
-            for (EHR e : ehrs.values()) {
-                try {
-                    int id = Integer.parseInt(e.getRecordID().replace("EHR-", "").replace("PAT", ""));
-                    if (id >= ehrCounter) ehrCounter = id + 1;
-                } catch (NumberFormatException e1) {}
-            }
-            for (Bill b : bills.values()) {
-                try {
-                    int id = Integer.parseInt(b.getBillID().replace("BILL-", "").replace("APT", ""));
-                    if (id >= billCounter) billCounter = id + 1;
-                } catch (NumberFormatException e) {}
-            }
-            for (Feedback f : feedbacks.values()) {
-                try {
-                    int id = Integer.parseInt(f.getFeedbackID().replace("FB", ""));
-                    if (id >= feedbackCounter) feedbackCounter = id + 1;
-                } catch (NumberFormatException e) {}
-            }
-            for (Prescription p : prescriptions.values()) {
-                try {
-                    int id = Integer.parseInt(p.getPrescriptionID().replace("PRES", ""));
-                    if (id >= prescriptionCounter) prescriptionCounter = id + 1;
-                } catch (NumberFormatException e) {}
+    /**
+     * Loads all stores concurrently on the loader pool, building their
+     * indexes as they load, and waits only for the admins and providers the
+     * login screen needs. The other stores are usually ready by the time a
+     * panel first asks for them; a panel that asks earlier waits for that
+     * store alone.
+     */
+    private void loadStores() {
+        List<Future<?>> loginLoads = Arrays.asList(submitLoad(admins), submitLoad(providers));
+        for (RecordStore<?> store : Arrays.asList(patients, appointments, ehrs, bills, feedbacks, prescriptions)) {
+            submitLoad(store);
+        }
+        for (Future<?> load : loginLoads) {
+            try {
+                load.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // Already reported; the store is loaded again on first use
             }
-        } catch (Exception e) {
-
         }
     }
+
+    private Future<?> submitLoad(RecordStore<?> store) {
+        return loader.submit(() -> {
+            try {
+                store.refresh();
+            } catch (Exception e) {
+                System.err.println("Background load failed: " + e.getMessage());
+            }
+        });
+    }
     
     public String generatePatientID() {
-        String id = "PAT" + patientCounter++;
-        saveCounters();
-        return id;
+        return patientIDs.nextID();
     }
     
     public String generateProviderID() {
-        String id = "PROV" + providerCounter++;
-        saveCounters();
-        return id;
+        return providerIDs.nextID();
     }
     
     public String generateAdminID() {
-        String id = "ADM" + adminCounter++;
-        saveCounters();
-        return id;
+        return adminIDs.nextID();
     }
     
     public String generateAppointmentID() {
-        String id = "APT" + appointmentCounter++;
-        saveCounters();
-        return id;
+        return appointmentIDs.nextID();
     }
     
     public String generateEHRID(String patientID) {
@@ -238,15 +466,11 @@ public class DataManager {
     }
     
     public String generateFeedbackID() {
-        String id = "FB" + feedbackCounter++;
-        saveCounters();
-        return id;
+        return feedbackIDs.nextID();
     }
     
     public String generatePrescriptionID() {
-        String id = "PRES" + prescriptionCounter++;
-        saveCounters();
-        return id;
+        return prescriptionIDs.nextID();
     }
 
     public void savePatient(Patient patient) throws IOException {
@@ -256,78 +480,190 @@ public class DataManager {
         if (patient.getUserID() == null || patient.getUserID().isEmpty()) {
             patient.setUserID(generatePatientID());
         }
-        patients.put(patient.getUserID(), patient);
-        saveAllPatients();
+        patients.put(patient);
     }
     
+    /**
+     * The first patient in ID order with the name, ignoring case, or null.
+     * {@link #findPatientsByName(String)} returns all of them.
+     */
     public Patient findPatientByName(String name) throws IOException, ClassNotFoundException {
-        loadAllPatients();
-        for (Patient p : patients.values()) {
-            if (p.getName().equalsIgnoreCase(name)) {
-                return p;
-            }
-        }
-        return null;
+        return first(findPatientsByName(name));
     }
-    
-    public Provider findProviderByName(String name) throws IOException, ClassNotFoundException {
-        loadAllProviders();
-        for (Provider p : providers.values()) {
-            if (p.getName().equalsIgnoreCase(name)) {
-                return p;
-            }
-        }
-        return null;
+
+    /**
+     * Patients with the name, ignoring case, in ID order
+     */
+    public List<Patient> findPatientsByName(String name) throws IOException, ClassNotFoundException {
+        patients.refresh();
+        return findByName(patients, patientsByName, Patient::getName, name);
     }
-    
-    public Admin findAdminByName(String name) throws IOException, ClassNotFoundException {
-        loadAllAdmins();
-        for (Admin a : admins.values()) {
-            if (a.getName().equalsIgnoreCase(name)) {
-                return a;
-            }
+
+    /**
+     * Patients whose name is within {@link #FUZZY_DISTANCE} edits of the
+     * given one, ignoring case; see {@link #searchPatientsFuzzy(String, int)}
+     */
+    public List<Patient> searchPatientsFuzzy(String name) throws IOException, ClassNotFoundException {
+        return searchPatientsFuzzy(name, FUZZY_DISTANCE);
+    }
+
+    /**
+     * Patients whose name is within {@code maxDistance} edits (inserted,
+     * deleted or replaced characters) of the given one, ignoring case, for
+     * finding a patient whose name was misspelled. Closest names come first,
+     * then names in alphabetical order, then patients in ID order.
+     */
+    public List<Patient> searchPatientsFuzzy(String name, int maxDistance)
+            throws IOException, ClassNotFoundException {
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("Edit distance cannot be negative");
+        }
+        patients.refresh();
+        List<Patient> matches = new ArrayList<>();
+        String key = nameKey(name);
+        if (key == null) {
+            return matches;
+        }
+        for (EditDistanceIndex.Match match : patientNameDistances.search(key, maxDistance)) {
+            matches.addAll(findByKey(patients, patientsByName, p -> nameKey(p.getName()), match.getKey()));
         }
-        return null;
+        return matches;
     }
 
-    public Patient loadPatient(String patientID) throws IOException, ClassNotFoundException {
-        loadAllPatients();
-        return patients.get(patientID);
+    /**
+     * Whether a patient is registered under a name that sounds like the
+     * given one, word by word; for warning at registration without showing
+     * anyone's record. Costs one hash lookup, whatever the number of patients.
+     */
+    public boolean hasSimilarPatient(String name) throws IOException, ClassNotFoundException {
+        patients.refresh();
+        String key = Soundex.of(name);
+        return key != null && patientsBySound.count(key) > 0;
     }
 
-    public List<Patient> searchPatients(String searchTerm) throws IOException, ClassNotFoundException {
-        loadAllPatients();
-        List<Patient> results = new ArrayList<>();
-        String lowerSearch = searchTerm.toLowerCase();
-        for (Patient patient : patients.values()) {
-            if (patient.getUserID().toLowerCase().contains(lowerSearch) ||
-                patient.getName().toLowerCase().contains(lowerSearch) ||
-                patient.getContactInfo().toLowerCase().contains(lowerSearch)) {
-                results.add(patient);
+    /**
+     * Patients whose name sounds like the given one, word by word, in ID
+     * order; for staff reviewing a patient who may be registered under a
+     * different spelling. Costs one hash lookup, whatever the number of
+     * patients.
+     */
+    public List<Patient> findSimilarPatients(String name) throws IOException, ClassNotFoundException {
+        patients.refresh();
+        String key = Soundex.of(name);
+        if (key == null) {
+            return new ArrayList<>();
+        }
+        return findByKey(patients, patientsBySound, p -> Soundex.of(p.getName()), key);
+    }
+
+    /**
+     * Groups of two or more patients whose names sound alike, for reviewing
+     * possible duplicate registrations across the whole store. Each group is
+     * in ID order.
+     */
+    public List<List<Patient>> findDuplicatePatientClusters() throws IOException, ClassNotFoundException {
+        patients.refresh();
+        List<List<Patient>> clusters = new ArrayList<>();
+        for (String key : patientsBySound.keysWithAtLeast(2)) {
+            List<Patient> cluster = findByKey(patients, patientsBySound, p -> Soundex.of(p.getName()), key);
+            if (cluster.size() >= 2) {
+                clusters.add(cluster);
             }
         }
-        return results;
+        return clusters;
     }
 
-    private void saveAllPatients() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(PATIENTS_FILE))) {
-            oos.writeObject(new ArrayList<>(patients.values()));
+    /**
+     * Searches the whole patient store for pairs of records that are likely
+     * the same person, by how much of their name, contact info and medical
+     * history they share, without comparing every record to every other.
+     * Runs on the common fork-join pool and passes each pair to the sink as
+     * soon as it is found, from several threads at once.
+     *
+     * @param minSimilarity Lowest {@link MergeCandidate#getSimilarity()} reported, from 0 to 1
+     * @return The number of pairs passed to the sink
+     */
+    public long findDuplicatePatients(double minSimilarity, Consumer<MergeCandidate> sink)
+            throws IOException, ClassNotFoundException {
+        if (minSimilarity < 0 || minSimilarity > 1) {
+            throw new IllegalArgumentException("Similarity must be between 0 and 1");
         }
+        patients.refresh();
+        return new DuplicateFinder(patients::get, minSimilarity).run(() -> patients.values().stream(), sink);
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadAllPatients() throws IOException, ClassNotFoundException {
-        File file = new File(PATIENTS_FILE);
-        if (!file.exists()) {
-            return;
+    public Provider findProviderByName(String name) throws IOException, ClassNotFoundException {
+        return first(findProvidersByName(name));
+    }
+
+    public List<Provider> findProvidersByName(String name) throws IOException, ClassNotFoundException {
+        providers.refresh();
+        return findByName(providers, providersByName, Provider::getName, name);
+    }
+
+    public Admin findAdminByName(String name) throws IOException, ClassNotFoundException {
+        return first(findAdminsByName(name));
+    }
+
+    public List<Admin> findAdminsByName(String name) throws IOException, ClassNotFoundException {
+        admins.refresh();
+        return findByName(admins, adminsByName, Admin::getName, name);
+    }
+
+    private static <T extends Serializable> List<T> findByName(RecordStore<T> store, KeyIndex<T> byName,
+            Function<T, String> nameOf, String name) {
+        String key = nameKey(name);
+        if (key == null) {
+            return new ArrayList<>();
         }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(PATIENTS_FILE))) {
-            List<Patient> loadedPatients = (List<Patient>) ois.readObject();
-            patients.clear();
-            for (Patient patient : loadedPatients) {
-                patients.put(patient.getUserID(), patient);
-            }
+        return findByKey(store, byName, record -> nameKey(nameOf.apply(record)), key);
+    }
+
+    /**
+     * The records filed under the key, in ID order
+     *
+     * @param keyOf The key the index files a record under
+     */
+    private static <T extends Serializable> List<T> findByKey(RecordStore<T> store, KeyIndex<T> index,
+            Function<T, String> keyOf, String key) {
+        List<T> matches = getAll(store, index.get(key));
+        // A record changed since its ID was looked up
+        matches.removeIf(record -> !key.equals(keyOf.apply(record)));
+        return matches;
+    }
+
+    private static <T> T first(List<T> records) {
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    /**
+     * Case-folded form of a name, so names that differ only in case or in
+     * how their characters are composed get the same key. Upper then lower
+     * casing folds characters with no single-character lowercase, such as the German sharp s.
+     */
+    private static String nameKey(String name) {
+        if (name == null) {
+            return null;
         }
+        return Normalizer.normalize(name, Normalizer.Form.NFKC).toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+
+    public Patient loadPatient(String patientID) throws IOException, ClassNotFoundException {
+        patients.refresh(patientID);
+        return patients.get(patientID);
+    }
+
+    /**
+     * Patients whose ID, name or contact info contains the term, ignoring case
+     */
+    public List<Patient> searchPatients(String searchTerm) throws IOException, ClassNotFoundException {
+        patients.refresh();
+        return getAll(patients, patientSearch.search(searchTerm));
+    }
+
+    public Page<Patient> searchPatients(String searchTerm, String cursor, int limit)
+            throws IOException, ClassNotFoundException {
+        return searchPage(patients, patientOrder, patientSearch, searchTerm, cursor, limit);
     }
 
 
@@ -335,57 +671,46 @@ public class DataManager {
         if (provider == null) {
             throw new IllegalArgumentException("Provider cannot be null");
         }
-        providers.put(provider.getUserID(), provider);
-        saveAllProviders();
+        providers.put(provider);
     }
 
     public Provider loadProvider(String providerID) throws IOException, ClassNotFoundException {
-        loadAllProviders();
+        providers.refresh();
         return providers.get(providerID);
     }
 
+    /**
+     * Providers whose ID, name or specialty contains the term, ignoring case
+     */
     public List<Provider> searchProviders(String searchTerm) throws IOException, ClassNotFoundException {
-        loadAllProviders();
-        List<Provider> results = new ArrayList<>();
-        String lowerSearch = searchTerm.toLowerCase();
-        for (Provider provider : providers.values()) {
-            if (provider.getUserID().toLowerCase().contains(lowerSearch) ||
-                provider.getName().toLowerCase().contains(lowerSearch) ||
-                provider.getSpecialty().toLowerCase().contains(lowerSearch)) {
-                results.add(provider);
-            }
-        }
-        return results;
+        providers.refresh();
+        return getAll(providers, providerSearch.search(searchTerm));
     }
 
-    public void deleteProvider(String providerID) throws IOException, ClassNotFoundException {
-        loadAllProviders();
-        if (providers.containsKey(providerID)) {
-            providers.remove(providerID);
-            saveAllProviders();
-        } else {
-            throw new IllegalArgumentException("Provider with ID " + providerID + " not found");
+    /**
+     * Up to {@code limit} providers whose name or specialty, or a word of
+     * either, starts with the prefix, ignoring case; for completing what a
+     * user types, in alphabetical order of the word that matched. A null or
+     * blank prefix matches nothing.
+     */
+    public List<Provider> completeProviders(String prefix, int limit) throws IOException, ClassNotFoundException {
+        if (prefix == null || prefix.trim().isEmpty()) {
+            return new ArrayList<>();
         }
+        providers.refresh();
+        String key = nameKey(prefix.trim());
+        return getAll(providers, providerPrefixes.complete(key, limit));
     }
 
-    private void saveAllProviders() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(PROVIDERS_FILE))) {
-            oos.writeObject(new ArrayList<>(providers.values()));
-        }
+    public Page<Provider> searchProviders(String searchTerm, String cursor, int limit)
+            throws IOException, ClassNotFoundException {
+        return searchPage(providers, providerOrder, providerSearch, searchTerm, cursor, limit);
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadAllProviders() throws IOException, ClassNotFoundException {
-        File file = new File(PROVIDERS_FILE);
-        if (!file.exists()) {
-            return;
-        }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(PROVIDERS_FILE))) {
-            List<Provider> loadedProviders = (List<Provider>) ois.readObject();
-            providers.clear();
-            for (Provider provider : loadedProviders) {
-                providers.put(provider.getUserID(), provider);
-            }
+    public void deleteProvider(String providerID) throws IOException, ClassNotFoundException {
+        providers.refresh();
+        if (!providers.remove(providerID)) {
+            throw new IllegalArgumentException("Provider with ID " + providerID + " not found");
         }
     }
 
@@ -394,92 +719,70 @@ public class DataManager {
         if (admin == null) {
             throw new IllegalArgumentException("Admin cannot be null");
         }
-        admins.put(admin.getUserID(), admin);
-        saveAllAdmins();
+        admins.put(admin);
     }
 
     public Admin loadAdmin(String adminID) throws IOException, ClassNotFoundException {
-        loadAllAdmins();
+        admins.refresh();
         return admins.get(adminID);
     }
 
-    private void saveAllAdmins() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(ADMINS_FILE))) {
-            oos.writeObject(new ArrayList<>(admins.values()));
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private void loadAllAdmins() throws IOException, ClassNotFoundException {
-        File file = new File(ADMINS_FILE);
-        if (!file.exists()) {
-            return;
-        }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(ADMINS_FILE))) {
-            List<Admin> loadedAdmins = (List<Admin>) ois.readObject();
-            admins.clear();
-            for (Admin admin : loadedAdmins) {
-                admins.put(admin.getUserID(), admin);
-            }
-        }
-    }
-
 
     public void saveAppointment(Appointment appointment) throws IOException {
         if (appointment == null) {
             throw new IllegalArgumentException("Appointment cannot be null");
         }
-        appointments.put(appointment.getAppointmentID(), appointment);
-        saveAllAppointments();
+        appointments.put(appointment);
     }
 
     public Appointment loadAppointment(String appointmentID) throws IOException, ClassNotFoundException {
-        loadAllAppointments();
+        appointments.refresh(appointmentID);
         return appointments.get(appointmentID);
     }
 
+    /**
+     * Appointments whose ID, status or date and time contains the term, ignoring case
+     */
     public List<Appointment> searchAppointments(String searchTerm) throws IOException, ClassNotFoundException {
-        loadAllAppointments();
-        List<Appointment> results = new ArrayList<>();
-        String lowerSearch = searchTerm.toLowerCase();
-        for (Appointment appointment : appointments.values()) {
-            if (appointment.getAppointmentID().toLowerCase().contains(lowerSearch) ||
-                appointment.getStatus().toLowerCase().contains(lowerSearch) ||
-                appointment.getDateTime().toLowerCase().contains(lowerSearch)) {
-                results.add(appointment);
-            }
-        }
-        return results;
+        appointments.refresh();
+        return getAll(appointments, appointmentSearch.search(searchTerm));
     }
 
-    public void deleteAppointment(String appointmentID) throws IOException, ClassNotFoundException {
-        loadAllAppointments();
-        if (appointments.containsKey(appointmentID)) {
-            appointments.remove(appointmentID);
-            saveAllAppointments();
-        } else {
-            throw new IllegalArgumentException("Appointment with ID " + appointmentID + " not found");
-        }
+    public Page<Appointment> searchAppointments(String searchTerm, String cursor, int limit)
+            throws IOException, ClassNotFoundException {
+        return searchPage(appointments, appointmentOrder, appointmentSearch, searchTerm, cursor, limit);
     }
 
-    private void saveAllAppointments() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(APPOINTMENTS_FILE))) {
-            oos.writeObject(new ArrayList<>(appointments.values()));
+    /**
+     * Pages search matches in listing order. A few matches are sorted; with
+     * many, sorting them all would cost more than walking the listing order
+     * and testing each ID against the index until the page is full.
+     */
+    private <T extends Serializable> Page<T> searchPage(RecordStore<T> store, IdOrderIndex<T> order,
+            TrigramIndex<T> search, String searchTerm, String cursor, int limit)
+            throws IOException, ClassNotFoundException {
+        List<String> ids = search.search(searchTerm, SORTED_MATCHES_LIMIT + 1);
+        if (ids.size() > SORTED_MATCHES_LIMIT) {
+            Predicate<String> matches = search.matcher(searchTerm);
+            return page(store, () -> order.after(cursor).stream().filter(matches).iterator(), limit, entity -> true);
         }
+        NavigableSet<String> ordered = new TreeSet<>(IdOrderIndex.ID_ORDER);
+        ordered.addAll(ids);
+        return page(store, cursor != null ? ordered.tailSet(cursor, false) : ordered, limit, entity -> true);
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadAllAppointments() throws IOException, ClassNotFoundException {
-        File file = new File(APPOINTMENTS_FILE);
-        if (!file.exists()) {
-            return;
-        }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(APPOINTMENTS_FILE))) {
-            List<Appointment> loadedAppointments = (List<Appointment>) ois.readObject();
-            appointments.clear();
-            for (Appointment appointment : loadedAppointments) {
-                appointments.put(appointment.getAppointmentID(), appointment);
-            }
+    /**
+     * Size of the search indexes, one line per store
+     */
+    public String describeSearchIndexes() {
+        return "patients: " + patientSearch + "\nproviders: " + providerSearch
+                + "\nappointments: " + appointmentSearch;
+    }
+
+    public void deleteAppointment(String appointmentID) throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        if (!appointments.remove(appointmentID)) {
+            throw new IllegalArgumentException("Appointment with ID " + appointmentID + " not found");
         }
     }
 
@@ -488,165 +791,324 @@ public class DataManager {
         if (ehr == null) {
             throw new IllegalArgumentException("EHR cannot be null");
         }
-        ehrs.put(ehr.getRecordID(), ehr);
-        saveAllEHRs();
+        ehrs.put(ehr);
     }
 
     public EHR loadEHR(String recordID) throws IOException, ClassNotFoundException {
-        loadAllEHRs();
+        ehrs.refresh();
         return ehrs.get(recordID);
     }
 
-    private void saveAllEHRs() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(EHRS_FILE))) {
-            oos.writeObject(new ArrayList<>(ehrs.values()));
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private void loadAllEHRs() throws IOException, ClassNotFoundException {
-        File file = new File(EHRS_FILE);
-        if (!file.exists()) {
-            return;
-        }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(EHRS_FILE))) {
-            List<EHR> loadedEHRs = (List<EHR>) ois.readObject();
-            ehrs.clear();
-            for (EHR ehr : loadedEHRs) {
-                ehrs.put(ehr.getRecordID(), ehr);
-            }
-        }
-    }
-
 
     public void saveBill(Bill bill) throws IOException {
         if (bill == null) {
             throw new IllegalArgumentException("Bill cannot be null");
         }
-        bills.put(bill.getBillID(), bill);
-        saveAllBills();
+        bills.put(bill);
     }
 
     public Bill loadBill(String billID) throws IOException, ClassNotFoundException {
-        loadAllBills();
+        bills.refresh();
         return bills.get(billID);
     }
 
-    private void saveAllBills() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(BILLS_FILE))) {
-            oos.writeObject(new ArrayList<>(bills.values()));
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private void loadAllBills() throws IOException, ClassNotFoundException {
-        File file = new File(BILLS_FILE);
-        if (!file.exists()) {
-            return;
-        }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(BILLS_FILE))) {
-            List<Bill> loadedBills = (List<Bill>) ois.readObject();
-            bills.clear();
-            for (Bill bill : loadedBills) {
-                bills.put(bill.getBillID(), bill);
-            }
-        }
-    }
-
 
     public void saveFeedback(Feedback feedback) throws IOException {
         if (feedback == null) {
             throw new IllegalArgumentException("Feedback cannot be null");
         }
-        feedbacks.put(feedback.getFeedbackID(), feedback);
-        saveAllFeedbacks();
+        feedbacks.put(feedback);
     }
 
     public List<Feedback> getAllFeedbacks() throws IOException, ClassNotFoundException {
-        loadAllFeedbacks();
+        feedbacks.refresh();
         return new ArrayList<>(feedbacks.values());
     }
 
-    private void saveAllFeedbacks() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(FEEDBACKS_FILE))) {
-            oos.writeObject(new ArrayList<>(feedbacks.values()));
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private void loadAllFeedbacks() throws IOException, ClassNotFoundException {
-        File file = new File(FEEDBACKS_FILE);
-        if (!file.exists()) {
-            return;
-        }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(FEEDBACKS_FILE))) {
-            List<Feedback> loadedFeedbacks = (List<Feedback>) ois.readObject();
-            feedbacks.clear();
-            for (Feedback feedback : loadedFeedbacks) {
-                feedbacks.put(feedback.getFeedbackID(), feedback);
-            }
-        }
-    }
-
 
     public void savePrescription(Prescription prescription) throws IOException {
         if (prescription == null) {
             throw new IllegalArgumentException("Prescription cannot be null");
         }
-        prescriptions.put(prescription.getPrescriptionID(), prescription);
-        saveAllPrescriptions();
-    }
-
-    private void saveAllPrescriptions() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(PRESCRIPTIONS_FILE))) {
-            oos.writeObject(new ArrayList<>(prescriptions.values()));
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private void loadAllPrescriptions() throws IOException, ClassNotFoundException {
-        File file = new File(PRESCRIPTIONS_FILE);
-        if (!file.exists()) {
-            return;
-        }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(PRESCRIPTIONS_FILE))) {
-            List<Prescription> loadedPrescriptions = (List<Prescription>) ois.readObject();
-            prescriptions.clear();
-            for (Prescription prescription : loadedPrescriptions) {
-                prescriptions.put(prescription.getPrescriptionID(), prescription);
-            }
-        }
+        prescriptions.put(prescription);
     }
 
 
     public List<Patient> getAllPatients() throws IOException, ClassNotFoundException {
-        loadAllPatients();
+        patients.refresh();
         return new ArrayList<>(patients.values());
     }
 
     public List<Provider> getAllProviders() throws IOException, ClassNotFoundException {
-        loadAllProviders();
+        providers.refresh();
         return new ArrayList<>(providers.values());
     }
 
     public List<Appointment> getAllAppointments() throws IOException, ClassNotFoundException {
-        loadAllAppointments();
+        appointments.refresh();
         return new ArrayList<>(appointments.values());
     }
 
     public List<EHR> getAllEHRs() throws IOException, ClassNotFoundException {
-        loadAllEHRs();
+        ehrs.refresh();
         return new ArrayList<>(ehrs.values());
     }
 
     public List<Bill> getAllBills() throws IOException, ClassNotFoundException {
-        loadAllBills();
+        bills.refresh();
         return new ArrayList<>(bills.values());
     }
 
     public List<Admin> getAllAdmins() throws IOException, ClassNotFoundException {
-        loadAllAdmins();
+        admins.refresh();
         return new ArrayList<>(admins.values());
     }
-}
 
+    /**
+     * Appointments of one provider, found through an index rather than by
+     * scanning all appointments
+     */
+    public List<Appointment> getAppointmentsForProvider(String providerID) throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        return getAll(appointments, appointmentsByProvider.get(providerID));
+    }
+
+    /**
+     * Appointments of one patient, found through an index; see {@link #getAppointmentsForProvider}
+     */
+    public List<Appointment> getAppointmentsForPatient(String patientID) throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        return getAll(appointments, appointmentsByPatient.get(patientID));
+    }
+
+    public List<Feedback> getFeedbacksForPatient(String patientID) throws IOException, ClassNotFoundException {
+        feedbacks.refresh();
+        return getAll(feedbacks, feedbacksByPatient.get(patientID));
+    }
+
+    /**
+     * Prescriptions filed in the patient's EHR
+     */
+    public List<Prescription> getPrescriptionsForPatient(String patientID) throws IOException, ClassNotFoundException {
+        prescriptions.refresh();
+        return getAll(prescriptions, prescriptionsByEHR.get(generateEHRID(patientID)));
+    }
+
+    /**
+     * Appointments with the status, in ID order. The status sets follow
+     * schedule(), cancel(), complete() and attached bills once the
+     * appointment is saved.
+     */
+    public List<Appointment> getAppointmentsByStatus(AppointmentStatus status) throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        return getAll(appointments, appointmentsByStatus.get(status.getLabel()));
+    }
+
+    /**
+     * Number of appointments with the status, without reading them
+     */
+    public int countAppointments(AppointmentStatus status) throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        return appointmentsByStatus.count(status.getLabel());
+    }
+
+    /**
+     * Appointments without a bill, of any status
+     */
+    public List<Appointment> getUnbilledAppointments() throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        List<Appointment> unbilled = new ArrayList<>();
+        for (AppointmentStatus status : AppointmentStatus.values()) {
+            unbilled.addAll(getAll(appointments, unbilledAppointments.get(status.getLabel())));
+        }
+        return unbilled;
+    }
+
+    /**
+     * Appointments with the status and without a bill, such as completed
+     * appointments still to be billed
+     */
+    public List<Appointment> getUnbilledAppointments(AppointmentStatus status) throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        return getAll(appointments, unbilledAppointments.get(status.getLabel()));
+    }
+
+    public int countUnbilledAppointments(AppointmentStatus status) throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        return unbilledAppointments.count(status.getLabel());
+    }
+
+    /**
+     * Appointments starting from {@code from} inclusive to {@code to}
+     * exclusive, earliest first, e.g. for a day or week view. Appointments
+     * whose date and time is not in dd/MM/yyyy HH:mm are never included.
+     */
+    public List<Appointment> getAppointmentsBetween(LocalDateTime from, LocalDateTime to)
+            throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        return getAll(appointments, appointmentTimes.between(Appointment.toMinutes(from), Appointment.toMinutes(to)));
+    }
+
+    public List<Appointment> getProviderAppointmentsBetween(String providerID, LocalDateTime from, LocalDateTime to)
+            throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        return getAll(appointments,
+                appointmentTimes.between(providerID, Appointment.toMinutes(from), Appointment.toMinutes(to)));
+    }
+
+    /**
+     * The next appointments from now on, earliest first, whatever their status
+     *
+     * @param limit Most appointments returned
+     */
+    public List<Appointment> getUpcomingAppointments(int limit) throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        return getAll(appointments, appointmentTimes.from(Appointment.toMinutes(LocalDateTime.now()), limit));
+    }
+
+    public List<Appointment> getUpcomingAppointmentsForProvider(String providerID, int limit)
+            throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        return getAll(appointments,
+                appointmentTimes.from(providerID, Appointment.toMinutes(LocalDateTime.now()), limit));
+    }
+
+    /**
+     * Reads the records of the IDs, skipping IDs whose record was removed meanwhile
+     */
+    private static <T extends Serializable> List<T> getAll(RecordStore<T> store, Collection<String> ids) {
+        List<T> records = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            T record = store.get(id);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Lists appointments a page at a time in ID order. Only the records on the
+     * page are read, however many there are in total.
+     *
+     * @param cursor {@link Page#getNextCursor()} of the previous page, or null for the first page
+     * @param limit Most records on the page
+     */
+    public Page<Appointment> getAppointmentsPage(String cursor, int limit) throws IOException, ClassNotFoundException {
+        return page(appointments, appointmentOrder.after(cursor), limit, apt -> true);
+    }
+
+    /**
+     * Pages through the appointments of one provider; see {@link #getAppointmentsPage}
+     */
+    public Page<Appointment> getProviderAppointmentsPage(String providerID, String cursor, int limit)
+            throws IOException, ClassNotFoundException {
+        return page(appointments, appointmentsByProvider.after(providerID, cursor), limit, apt -> true);
+    }
+
+    public Page<Bill> getBillsPage(String cursor, int limit) throws IOException, ClassNotFoundException {
+        return page(bills, billOrder.after(cursor), limit, bill -> true);
+    }
+
+    public Page<Feedback> getFeedbacksPage(String cursor, int limit) throws IOException, ClassNotFoundException {
+        return page(feedbacks, feedbackOrder.after(cursor), limit, feedback -> true);
+    }
+
+    public Page<Patient> getPatientsPage(String cursor, int limit) throws IOException, ClassNotFoundException {
+        return page(patients, patientOrder.after(cursor), limit, patient -> true);
+    }
+
+    public Page<Provider> getProvidersPage(String cursor, int limit) throws IOException, ClassNotFoundException {
+        return page(providers, providerOrder.after(cursor), limit, provider -> true);
+    }
+
+    /**
+     * Walks the IDs after the cursor until the page is full. A filtered page
+     * reads past records that do not match, but never beyond the last record
+     * it returns.
+     *
+     * @param idsAfterCursor IDs of the listing, in order, that come after the cursor
+     */
+    private <T extends Serializable> Page<T> page(RecordStore<T> store, Iterable<String> idsAfterCursor, int limit,
+            Predicate<T> filter) throws IOException, ClassNotFoundException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive");
+        }
+        store.refresh();
+        List<T> items = new ArrayList<>(Math.min(limit, 256));
+        String last = null;
+        Iterator<String> ids = idsAfterCursor.iterator();
+        while (items.size() < limit && ids.hasNext()) {
+            String id = ids.next();
+            T entity = store.get(id);
+            // Removed since the ID was listed
+            if (entity != null && filter.test(entity)) {
+                items.add(entity);
+                last = id;
+            }
+        }
+        return new Page<>(items, items.size() == limit && ids.hasNext() ? last : null);
+    }
+
+    /**
+     * Streams the appointments straight out of the store instead of copying
+     * them into a list, so filtering for one table row costs no allocation
+     * per record. The stream is weakly consistent: saves made while it is
+     * consumed may or may not be seen. Short-circuiting operations such as
+     * findFirst or anyMatch stop reading early, and parallel() splits the
+     * work by shard.
+     */
+    public Stream<Appointment> streamAppointments() throws IOException, ClassNotFoundException {
+        appointments.refresh();
+        return appointments.values().stream();
+    }
+
+    /**
+     * See {@link #streamAppointments()}
+     */
+    public Stream<Patient> streamPatients() throws IOException, ClassNotFoundException {
+        patients.refresh();
+        return patients.values().stream();
+    }
+
+    public Stream<Provider> streamProviders() throws IOException, ClassNotFoundException {
+        providers.refresh();
+        return providers.values().stream();
+    }
+
+    public Stream<Admin> streamAdmins() throws IOException, ClassNotFoundException {
+        admins.refresh();
+        return admins.values().stream();
+    }
+
+    public Stream<EHR> streamEHRs() throws IOException, ClassNotFoundException {
+        ehrs.refresh();
+        return ehrs.values().stream();
+    }
+
+    public Stream<Bill> streamBills() throws IOException, ClassNotFoundException {
+        bills.refresh();
+        return bills.values().stream();
+    }
+
+    public Stream<Feedback> streamFeedbacks() throws IOException, ClassNotFoundException {
+        feedbacks.refresh();
+        return feedbacks.values().stream();
+    }
+
+    /**
+     * Blocks until every save made so far is written to disk. Saves are
+     * otherwise written in the background within the commit window.
+     */
+    public void flush() throws IOException {
+        backend.flush();
+    }
+
+    /**
+     * Writes pending saves and releases the storage files
+     */
+    public void close() {
+        loader.shutdown();
+        backend.close();
+    }
+}
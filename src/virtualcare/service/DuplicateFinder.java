@@ -0,0 +1,286 @@
+package virtualcare.service;
+
+import virtualcare.model.Patient;
+import virtualcare.service.storage.IdOrderIndex;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Finds pairs of patient records that are likely the same person, without
+ * comparing every record to every other.
+ *
+ * Each record is reduced to the set of three-letter sequences (shingles) of
+ * its name, contact info and medical history, and the set to a MinHash
+ * signature: for each of {@link #BANDS} x {@link #ROWS} hash functions, the
+ * smallest hash of any shingle. Two records agree on one of those minimums
+ * with probability equal to the Jaccard similarity of their sets. The
+ * signature is cut into bands of {@link #ROWS} minimums, and records are
+ * only compared to records with an identical band, which makes pairs with a
+ * similarity of 0.7 candidates 94% of the time and pairs with 0.3 only 8% of
+ * the time. Records with the same contact info are compared as well, as an
+ * extra band. Candidates are then scored by their exact similarity.
+ *
+ * Shingles many records have, such as those of a common mail domain, would
+ * put the minimums of many unrelated records on the same shingles and their
+ * bands in the same huge buckets. A first pass counts the records each
+ * shingle occurs in, and shingles in more than 1 in {@link #COMMON_SHARE}
+ * records are left out of the signatures, though not out of the score.
+ *
+ * Only the band hashes are kept per record. Each band is sorted as an array
+ * of longs, hash in the high half and record number in the low half, so the
+ * records sharing a hash end up next to each other. Signatures are computed
+ * on a parallel stream and the bands are searched in parallel, both on the
+ * common fork-join pool.
+ */
+class DuplicateFinder {
+    private static final int BANDS = 10;
+    private static final int ROWS = 4;
+    // Band of the contact info blocking key, after the MinHash bands
+    private static final int CONTACT_BAND = BANDS;
+    // Band hash of a record without shingles or contact info, which is not filed in the band
+    private static final int NONE = Integer.MIN_VALUE;
+    // Records compared with each record of a bucket; larger buckets are compared as a sliding window
+    private static final int WINDOW = 200;
+    private static final int COMMON_SHARE = 20;
+    // Shingle counts are kept per hash slot; a rare shingle sharing a slot with a common one is left out too
+    private static final int COUNT_SLOTS = 1 << 22;
+
+    private static final long[] MULTIPLIERS = new long[BANDS * ROWS];
+    private static final long[] INCREMENTS = new long[BANDS * ROWS];
+
+    static {
+        // Fixed seed, so a record's signature is the same on every run
+        Random random = new Random(0x5EEDL);
+        for (int i = 0; i < MULTIPLIERS.length; i++) {
+            MULTIPLIERS[i] = random.nextLong() | 1;
+            INCREMENTS[i] = random.nextLong();
+        }
+    }
+
+    private final Function<String, Patient> lookup;
+    private final double minSimilarity;
+
+    /**
+     * @param lookup Reads a patient by ID, or returns null if it is gone
+     * @param minSimilarity Lowest similarity reported, from 0 to 1
+     */
+    DuplicateFinder(Function<String, Patient> lookup, double minSimilarity) {
+        this.lookup = lookup;
+        this.minSimilarity = minSimilarity;
+    }
+
+    /**
+     * Passes every pair at or above the similarity to the sink as it is
+     * found, from several threads at once, and returns the number of pairs
+     */
+    long run(Supplier<Stream<Patient>> patients, Consumer<MergeCandidate> sink) {
+        AtomicIntegerArray counts = new AtomicIntegerArray(COUNT_SLOTS);
+        LongAdder records = new LongAdder();
+        patients.get().parallel().forEach(patient -> {
+            records.increment();
+            for (int shingle : shingles(patient)) {
+                counts.incrementAndGet(shingle & (COUNT_SLOTS - 1));
+            }
+        });
+        int common = (int) Math.max(WINDOW, records.sum() / COMMON_SHARE);
+        List<Sketch> sketches = patients.get().parallel().map(patient -> sketch(patient, counts, common))
+                .collect(Collectors.toList());
+        AtomicLong found = new AtomicLong();
+        IntStream.rangeClosed(0, CONTACT_BAND).parallel()
+                .forEach(band -> searchBand(sketches, band, sink, found));
+        return found.get();
+    }
+
+    private void searchBand(List<Sketch> sketches, int band, Consumer<MergeCandidate> sink, AtomicLong found) {
+        long[] entries = new long[sketches.size()];
+        int count = 0;
+        for (int i = 0; i < sketches.size(); i++) {
+            int hash = sketches.get(i).bands[band];
+            if (hash != NONE) {
+                entries[count++] = (long) hash << 32 | i;
+            }
+        }
+        Arrays.sort(entries, 0, count);
+        int start = 0;
+        while (start < count) {
+            int end = start + 1;
+            while (end < count && entries[end] >>> 32 == entries[start] >>> 32) {
+                end++;
+            }
+            if (end - start > 1) {
+                searchBucket(sketches, band, entries, start, end, sink, found);
+            }
+            start = end;
+        }
+    }
+
+    private void searchBucket(List<Sketch> sketches, int band, long[] entries, int start, int end,
+            Consumer<MergeCandidate> sink, AtomicLong found) {
+        Patient[] patients = new Patient[end - start];
+        int[][] shingles = new int[end - start][];
+        for (int i = start; i < end; i++) {
+            Sketch a = sketches.get((int) entries[i]);
+            for (int j = i + 1; j < end && j <= i + WINDOW; j++) {
+                Sketch b = sketches.get((int) entries[j]);
+                if (sharesEarlierBand(a, b, band)) {
+                    // Compared in that band already
+                    continue;
+                }
+                if (patients[i - start] == null) {
+                    patients[i - start] = lookup.apply(a.id);
+                    shingles[i - start] = patients[i - start] != null ? shingles(patients[i - start]) : null;
+                }
+                if (patients[j - start] == null) {
+                    patients[j - start] = lookup.apply(b.id);
+                    shingles[j - start] = patients[j - start] != null ? shingles(patients[j - start]) : null;
+                }
+                if (shingles[i - start] == null || shingles[j - start] == null) {
+                    continue;
+                }
+                double similarity = jaccard(shingles[i - start], shingles[j - start]);
+                if (similarity >= minSimilarity) {
+                    boolean aFirst = IdOrderIndex.ID_ORDER.compare(a.id, b.id) < 0;
+                    Patient first = aFirst ? patients[i - start] : patients[j - start];
+                    Patient second = aFirst ? patients[j - start] : patients[i - start];
+                    found.incrementAndGet();
+                    sink.accept(new MergeCandidate(first, second, similarity));
+                }
+            }
+        }
+    }
+
+    private static boolean sharesEarlierBand(Sketch a, Sketch b, int band) {
+        for (int i = 0; i < band; i++) {
+            if (a.bands[i] != NONE && a.bands[i] == b.bands[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Sketch sketch(Patient patient, AtomicIntegerArray counts, int common) {
+        int[] bands = new int[CONTACT_BAND + 1];
+        int[] minimums = new int[BANDS * ROWS];
+        Arrays.fill(minimums, Integer.MAX_VALUE);
+        boolean hashed = false;
+        for (int shingle : shingles(patient)) {
+            if (counts.get(shingle & (COUNT_SLOTS - 1)) > common) {
+                continue;
+            }
+            hashed = true;
+            for (int i = 0; i < minimums.length; i++) {
+                int hash = (int) ((MULTIPLIERS[i] * shingle + INCREMENTS[i]) >>> 32);
+                if (hash < minimums[i]) {
+                    minimums[i] = hash;
+                }
+            }
+        }
+        for (int band = 0; band < BANDS; band++) {
+            int hash = band;
+            for (int row = 0; row < ROWS; row++) {
+                hash = mix(hash * 31 + minimums[band * ROWS + row]);
+            }
+            bands[band] = !hashed ? NONE : hash != NONE ? hash : 0;
+        }
+        String contact = fold(patient.getContactInfo());
+        if (contact.isEmpty()) {
+            bands[CONTACT_BAND] = NONE;
+        } else {
+            int hash = mix(contact.hashCode());
+            bands[CONTACT_BAND] = hash != NONE ? hash : 0;
+        }
+        return new Sketch(patient.getUserID(), bands);
+    }
+
+    /**
+     * Sorted, distinct hashes of the three-letter sequences of each field,
+     * tagged with the field so the same letters in two fields differ. A
+     * field shorter than three letters counts as one sequence.
+     */
+    private static int[] shingles(Patient patient) {
+        String[] fields = {patient.getName(), patient.getContactInfo(), patient.getMedicalHistory()};
+        int size = 0;
+        int[] shingles = new int[16];
+        for (int field = 0; field < fields.length; field++) {
+            String text = fold(fields[field]);
+            if (text.isEmpty()) {
+                continue;
+            }
+            int last = Math.max(0, text.length() - 3);
+            for (int i = 0; i <= last; i++) {
+                int hash = field + 1;
+                for (int j = i; j < Math.min(i + 3, text.length()); j++) {
+                    hash = hash * 31 + text.charAt(j);
+                }
+                if (size == shingles.length) {
+                    shingles = Arrays.copyOf(shingles, size * 2);
+                }
+                shingles[size++] = mix(hash);
+            }
+        }
+        Arrays.sort(shingles, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || shingles[i] != shingles[distinct - 1]) {
+                shingles[distinct++] = shingles[i];
+            }
+        }
+        return Arrays.copyOf(shingles, distinct);
+    }
+
+    private static double jaccard(int[] a, int[] b) {
+        int shared = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                shared++;
+                i++;
+                j++;
+            }
+        }
+        return (double) shared / (a.length + b.length - shared);
+    }
+
+    /**
+     * Lowercased with runs of whitespace made single spaces, so spacing and
+     * case do not count as differences
+     */
+    private static String fold(String text) {
+        return text == null ? "" : text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ hash >>> 16;
+    }
+
+    private static final class Sketch {
+        final String id;
+        // MinHash band hashes, then the contact info hash; NONE where the record has nothing to hash
+        final int[] bands;
+
+        Sketch(String id, int[] bands) {
+            this.id = id;
+            this.bands = bands;
+        }
+    }
+}
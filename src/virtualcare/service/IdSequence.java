@@ -0,0 +1,102 @@
+package virtualcare.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Sequential IDs for one entity type, handed out from leased blocks.
+ * Only the end of the current block is persisted, so the lease is written
+ * once per block instead of once per ID. After a restart numbering resumes at
+ * the end of the last leased block: unused numbers from that block are
+ * skipped, but a number is never handed out twice.
+ *
+ * Handing out an ID is a single compare-and-set and safe from any thread;
+ * only the thread that exhausts a block takes a lock to lease the next one.
+ */
+class IdSequence {
+    private final String key;
+    private final String prefix;
+    private final int blockSize;
+    private final Consumer<IdSequence> leaseWriter;
+    private final AtomicLong next = new AtomicLong(1);
+    // IDs below limit are covered by a lease that has been persisted
+    private volatile long limit = 1;
+    // End of the newest lease, which may still be being persisted
+    private volatile long reserved = 1;
+
+    /**
+     * @param leaseWriter Persists {@link #getLimit()} whenever a block is leased
+     */
+    IdSequence(String key, String prefix, int blockSize, Consumer<IdSequence> leaseWriter) {
+        this.key = key;
+        this.prefix = prefix;
+        this.blockSize = blockSize;
+        this.leaseWriter = leaseWriter;
+    }
+
+    /**
+     * Key of this sequence in counters.dat
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Resumes after a restart from the persisted end of the last leased block
+     */
+    synchronized void restore(long persistedLimit) {
+        long start = Math.max(next.get(), persistedLimit);
+        next.set(start);
+        reserved = start;
+        limit = start;
+    }
+
+    /**
+     * First number that is neither handed out nor covered by a lease
+     */
+    long getLimit() {
+        return Math.max(reserved, next.get());
+    }
+
+    String nextID() {
+        while (true) {
+            long number = next.get();
+            if (number < limit) {
+                if (next.compareAndSet(number, number + 1)) {
+                    return prefix + number;
+                }
+            } else {
+                lease(number);
+            }
+        }
+    }
+
+    /**
+     * Leases the next block unless another thread already did. The new limit
+     * is only published after it has been persisted.
+     */
+    private synchronized void lease(long exhausted) {
+        if (exhausted < limit) {
+            return;
+        }
+        long newLimit = Math.max(next.get(), limit) + blockSize;
+        reserved = newLimit;
+        leaseWriter.accept(this);
+        limit = newLimit;
+    }
+
+    /**
+     * Moves past an ID that is already in use
+     */
+    void skipPast(String id) {
+        if (id == null || !id.startsWith(prefix)) {
+            return;
+        }
+        try {
+            long number = Long.parseLong(id.substring(prefix.length()));
+            next.accumulateAndGet(number + 1, Math::max);
+        } catch (NumberFormatException e) {
+
+        }
+    }
+}
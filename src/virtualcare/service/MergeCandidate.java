@@ -0,0 +1,35 @@
+package virtualcare.service;
+
+import virtualcare.model.Patient;
+
+/**
+ * Two patient records that are likely the same person, found by
+ * {@link DataManager#findDuplicatePatients}. The first has the lower ID.
+ */
+public class MergeCandidate {
+    private final Patient first;
+    private final Patient second;
+    private final double similarity;
+
+    public MergeCandidate(Patient first, Patient second, double similarity) {
+        this.first = first;
+        this.second = second;
+        this.similarity = similarity;
+    }
+
+    public Patient getFirst() {
+        return first;
+    }
+
+    public Patient getSecond() {
+        return second;
+    }
+
+    /**
+     * Share of the three-letter sequences of name, contact info and medical
+     * history the two records have in common, from 0 to 1
+     */
+    public double getSimilarity() {
+        return similarity;
+    }
+}
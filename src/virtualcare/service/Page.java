@@ -0,0 +1,33 @@
+package virtualcare.service;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a listing. Pass {@link #getNextCursor()} to the same query to
+ * get the page after it; it is null on the last page.
+ *
+ * Pages are ordered by ID, so records saved while paging either show up on a
+ * later page or not at all, but never shift records between pages.
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final String nextCursor;
+
+    public Page(List<T> items, String nextCursor) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
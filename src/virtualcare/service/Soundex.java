@@ -0,0 +1,69 @@
+package virtualcare.service;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * American Soundex codes of names, so names that sound alike, such as
+ * "Jon Smith" and "John Smyth", get the same key. Each word is coded as its
+ * first letter and up to three digits for the consonants after it; letters
+ * with accents count as the letter without them.
+ */
+final class Soundex {
+    // Digit of each letter A to Z; 0 for vowels, which separate repeated digits, and - for H and W, which do not
+    private static final String DIGITS = "0123012-02245501262301-202";
+
+    private Soundex() {
+    }
+
+    /**
+     * The codes of the words of a name, separated by spaces, or null if the
+     * name has no letters
+     */
+    static String of(String name) {
+        if (name == null) {
+            return null;
+        }
+        String letters = Normalizer.normalize(name, Normalizer.Form.NFD).toUpperCase(Locale.ROOT);
+        StringBuilder key = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i <= letters.length(); i++) {
+            if (i == letters.length() || Character.isWhitespace(letters.charAt(i))) {
+                encodeWord(letters, start, i, key);
+                start = i + 1;
+            }
+        }
+        return key.length() > 0 ? key.toString() : null;
+    }
+
+    private static void encodeWord(String letters, int start, int end, StringBuilder key) {
+        int length = 0;
+        char previous = 0;
+        for (int i = start; i < end && length < 4; i++) {
+            char c = letters.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                continue;
+            }
+            char digit = DIGITS.charAt(c - 'A');
+            if (length == 0) {
+                if (key.length() > 0) {
+                    key.append(' ');
+                }
+                key.append(c);
+                length = 1;
+            } else if (digit == '0') {
+                previous = 0;
+                continue;
+            } else if (digit == '-') {
+                continue;
+            } else if (digit != previous) {
+                key.append(digit);
+                length++;
+            }
+            previous = digit;
+        }
+        for (; length > 0 && length < 4; length++) {
+            key.append('0');
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package virtualcare.service.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Hand-written binary encoding for one model class.
+ * Every record starts with a schema version byte followed by the entity's
+ * fields in a fixed order. References to other entities are plain IDs.
+ */
+public interface EntityCodec<T> {
+
+    void write(DataOutput out, T entity) throws IOException;
+
+    T read(DataInput in) throws IOException;
+}
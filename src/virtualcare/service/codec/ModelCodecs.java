@@ -0,0 +1,404 @@
+package virtualcare.service.codec;
+
+import virtualcare.model.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codecs for all entities in virtualcare.model.
+ * Strings are written as a varint length followed by UTF-8 bytes, with a
+ * length of 0 marking null, so short records stay a few dozen bytes.
+ */
+public final class ModelCodecs {
+    public static final EntityCodec<Patient> PATIENT = new PatientCodec();
+    public static final EntityCodec<Provider> PROVIDER = new ProviderCodec();
+    public static final EntityCodec<Admin> ADMIN = new AdminCodec();
+    public static final EntityCodec<Appointment> APPOINTMENT = new AppointmentCodec();
+    public static final EntityCodec<EHR> EHR = new EHRCodec();
+    public static final EntityCodec<Bill> BILL = new BillCodec();
+    public static final EntityCodec<Feedback> FEEDBACK = new FeedbackCodec();
+    public static final EntityCodec<Prescription> PRESCRIPTION = new PrescriptionCodec();
+    public static final SlotCodec<Appointment> APPOINTMENT_SLOT = new AppointmentSlotCodec();
+
+    private ModelCodecs() {
+    }
+
+    private static final class PatientCodec implements EntityCodec<Patient> {
+        private static final int VERSION = 1;
+
+        @Override
+        public void write(DataOutput out, Patient patient) throws IOException {
+            out.writeByte(VERSION);
+            writeString(out, patient.getUserID());
+            writeString(out, patient.getName());
+            writeString(out, patient.getPassword());
+            writeString(out, patient.getContactInfo());
+            writeString(out, patient.getMedicalHistory());
+            writeIDs(out, patient.getAppointmentIDs());
+            writeIDs(out, patient.getFeedbackIDs());
+        }
+
+        @Override
+        public Patient read(DataInput in) throws IOException {
+            checkVersion(in, VERSION, "Patient");
+            Patient patient = new Patient(readString(in), readString(in), null, null, readString(in));
+            patient.setContactInfo(readString(in));
+            patient.setMedicalHistory(readString(in));
+            for (String appointmentID : readIDs(in)) {
+                patient.addAppointmentID(appointmentID);
+            }
+            for (String feedbackID : readIDs(in)) {
+                patient.addFeedbackID(feedbackID);
+            }
+            return patient;
+        }
+    }
+
+    private static final class ProviderCodec implements EntityCodec<Provider> {
+        private static final int VERSION = 1;
+
+        @Override
+        public void write(DataOutput out, Provider provider) throws IOException {
+            out.writeByte(VERSION);
+            writeString(out, provider.getUserID());
+            writeString(out, provider.getName());
+            writeString(out, provider.getPassword());
+            writeString(out, provider.getSpecialty());
+            writeString(out, provider.getAvailability());
+            writeIDs(out, provider.getAppointmentIDs());
+            writeString(out, provider.getManagedByID());
+        }
+
+        @Override
+        public Provider read(DataInput in) throws IOException {
+            checkVersion(in, VERSION, "Provider");
+            Provider provider = new Provider(readString(in), readString(in), null, null, readString(in));
+            provider.setSpecialty(readString(in));
+            provider.setAvailability(readString(in));
+            for (String appointmentID : readIDs(in)) {
+                provider.addAppointmentID(appointmentID);
+            }
+            provider.setManagedByID(readString(in));
+            return provider;
+        }
+    }
+
+    private static final class AdminCodec implements EntityCodec<Admin> {
+        private static final int VERSION = 1;
+
+        @Override
+        public void write(DataOutput out, Admin admin) throws IOException {
+            out.writeByte(VERSION);
+            writeString(out, admin.getUserID());
+            writeString(out, admin.getName());
+            writeString(out, admin.getPassword());
+            writeIDs(out, admin.getManagedProviderIDs());
+        }
+
+        @Override
+        public Admin read(DataInput in) throws IOException {
+            checkVersion(in, VERSION, "Admin");
+            Admin admin = new Admin(readString(in), readString(in), readString(in));
+            for (String providerID : readIDs(in)) {
+                admin.addProviderID(providerID);
+            }
+            return admin;
+        }
+    }
+
+    private static final class AppointmentCodec implements EntityCodec<Appointment> {
+        private static final int VERSION = 1;
+
+        @Override
+        public void write(DataOutput out, Appointment appointment) throws IOException {
+            out.writeByte(VERSION);
+            writeString(out, appointment.getAppointmentID());
+            writeString(out, appointment.getDateTime());
+            writeString(out, appointment.getStatus());
+            writeString(out, appointment.getProviderID());
+            writeString(out, appointment.getPatientID());
+            writeString(out, appointment.getEhrID());
+            writeString(out, appointment.getBillID());
+        }
+
+        @Override
+        public Appointment read(DataInput in) throws IOException {
+            checkVersion(in, VERSION, "Appointment");
+            Appointment appointment = new Appointment(readString(in), readString(in), readString(in));
+            appointment.setProviderID(readString(in));
+            appointment.setPatientID(readString(in));
+            appointment.setEhrID(readString(in));
+            appointment.setBillID(readString(in));
+            return appointment;
+        }
+    }
+
+    /**
+     * Appointment slots: five IDs of at most 23 ASCII characters, the date and
+     * time as epoch minutes and the status as a one-byte code. Appointments
+     * with longer IDs, another date format or an unknown status do not fit.
+     */
+    private static final class AppointmentSlotCodec implements SlotCodec<Appointment> {
+        private static final int ID_WIDTH = 24;
+        private static final int TIME_OFFSET = 5 * ID_WIDTH;
+        private static final int STATUS_OFFSET = TIME_OFFSET + 8;
+        // Code 0 is no status, code n is STATUSES[n - 1]
+        private static final AppointmentStatus[] STATUSES = AppointmentStatus.values();
+
+        @Override
+        public int slotSize() {
+            return STATUS_OFFSET + 1;
+        }
+
+        @Override
+        public boolean fits(Appointment appointment) {
+            if (!fitsID(appointment.getAppointmentID()) || !fitsID(appointment.getProviderID())
+                    || !fitsID(appointment.getPatientID()) || !fitsID(appointment.getEhrID())
+                    || !fitsID(appointment.getBillID()) || statusCode(appointment.getStatus()) < 0) {
+                return false;
+            }
+            String dateTime = appointment.getDateTime();
+            return dateTime == null || Appointment.parseMinutes(dateTime) != Appointment.NO_TIME;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Appointment appointment) {
+            putID(buffer, offset, appointment.getAppointmentID());
+            putID(buffer, offset + ID_WIDTH, appointment.getProviderID());
+            putID(buffer, offset + 2 * ID_WIDTH, appointment.getPatientID());
+            putID(buffer, offset + 3 * ID_WIDTH, appointment.getEhrID());
+            putID(buffer, offset + 4 * ID_WIDTH, appointment.getBillID());
+            buffer.putLong(offset + TIME_OFFSET, appointment.getStartMinutes());
+            buffer.put(offset + STATUS_OFFSET, (byte) statusCode(appointment.getStatus()));
+        }
+
+        @Override
+        public Appointment read(ByteBuffer buffer, int offset) {
+            long time = buffer.getLong(offset + TIME_OFFSET);
+            int status = buffer.get(offset + STATUS_OFFSET);
+            Appointment appointment = new Appointment(getID(buffer, offset),
+                    time != Appointment.NO_TIME ? Appointment.formatMinutes(time) : null,
+                    status > 0 && status <= STATUSES.length ? STATUSES[status - 1].getLabel() : null);
+            appointment.setProviderID(getID(buffer, offset + ID_WIDTH));
+            appointment.setPatientID(getID(buffer, offset + 2 * ID_WIDTH));
+            appointment.setEhrID(getID(buffer, offset + 3 * ID_WIDTH));
+            appointment.setBillID(getID(buffer, offset + 4 * ID_WIDTH));
+            return appointment;
+        }
+
+        @Override
+        public String readID(ByteBuffer buffer, int offset) {
+            return getID(buffer, offset);
+        }
+
+        private static int statusCode(String status) {
+            if (status == null) {
+                return 0;
+            }
+            AppointmentStatus known = AppointmentStatus.of(status);
+            return known != null ? known.ordinal() + 1 : -1;
+        }
+
+        private static boolean fitsID(String id) {
+            if (id == null) {
+                return true;
+            }
+            if (id.length() >= ID_WIDTH) {
+                return false;
+            }
+            for (int i = 0; i < id.length(); i++) {
+                if (id.charAt(i) > 0x7F) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Length byte (0 for null, otherwise length + 1) followed by the ASCII characters
+         */
+        private static void putID(ByteBuffer buffer, int offset, String id) {
+            if (id == null) {
+                buffer.put(offset, (byte) 0);
+                return;
+            }
+            buffer.put(offset, (byte) (id.length() + 1));
+            for (int i = 0; i < id.length(); i++) {
+                buffer.put(offset + 1 + i, (byte) id.charAt(i));
+            }
+        }
+
+        private static String getID(ByteBuffer buffer, int offset) {
+            int length = buffer.get(offset) - 1;
+            if (length < 0) {
+                return null;
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) buffer.get(offset + 1 + i);
+            }
+            return new String(chars);
+        }
+    }
+
+    private static final class EHRCodec implements EntityCodec<EHR> {
+        private static final int VERSION = 1;
+
+        @Override
+        public void write(DataOutput out, EHR ehr) throws IOException {
+            out.writeByte(VERSION);
+            writeString(out, ehr.getRecordID());
+            writeString(out, ehr.getDiagnosis());
+            writeString(out, ehr.getTreatmentPlan());
+            writeIDs(out, ehr.getPrescriptionIDs());
+            writeString(out, ehr.getPatientID());
+        }
+
+        @Override
+        public EHR read(DataInput in) throws IOException {
+            checkVersion(in, VERSION, "EHR");
+            EHR ehr = new EHR(readString(in), readString(in), readString(in));
+            for (String prescriptionID : readIDs(in)) {
+                ehr.addPrescriptionID(prescriptionID);
+            }
+            ehr.setPatientID(readString(in));
+            return ehr;
+        }
+    }
+
+    private static final class BillCodec implements EntityCodec<Bill> {
+        private static final int VERSION = 1;
+
+        @Override
+        public void write(DataOutput out, Bill bill) throws IOException {
+            out.writeByte(VERSION);
+            writeString(out, bill.getBillID());
+            out.writeDouble(bill.getAmount());
+            writeString(out, bill.getStatus());
+            writeString(out, bill.getPaymentMethod());
+            writeString(out, bill.getAppointmentID());
+        }
+
+        @Override
+        public Bill read(DataInput in) throws IOException {
+            checkVersion(in, VERSION, "Bill");
+            Bill bill = new Bill(readString(in), in.readDouble(), readString(in), readString(in));
+            bill.setAppointmentID(readString(in));
+            return bill;
+        }
+    }
+
+    private static final class FeedbackCodec implements EntityCodec<Feedback> {
+        private static final int VERSION = 1;
+
+        @Override
+        public void write(DataOutput out, Feedback feedback) throws IOException {
+            out.writeByte(VERSION);
+            writeString(out, feedback.getFeedbackID());
+            writeVarInt(out, feedback.getRating());
+            writeString(out, feedback.getComment());
+            writeString(out, feedback.getDate());
+            writeString(out, feedback.getPatientID());
+        }
+
+        @Override
+        public Feedback read(DataInput in) throws IOException {
+            checkVersion(in, VERSION, "Feedback");
+            Feedback feedback = new Feedback(readString(in), readVarInt(in), readString(in));
+            feedback.setDate(readString(in));
+            feedback.setPatientID(readString(in));
+            return feedback;
+        }
+    }
+
+    private static final class PrescriptionCodec implements EntityCodec<Prescription> {
+        private static final int VERSION = 1;
+
+        @Override
+        public void write(DataOutput out, Prescription prescription) throws IOException {
+            out.writeByte(VERSION);
+            writeString(out, prescription.getPrescriptionID());
+            writeString(out, prescription.getMedication());
+            writeString(out, prescription.getDosage());
+            writeString(out, prescription.getIssuedDate());
+            writeString(out, prescription.getEhrID());
+        }
+
+        @Override
+        public Prescription read(DataInput in) throws IOException {
+            checkVersion(in, VERSION, "Prescription");
+            Prescription prescription = new Prescription(readString(in), readString(in), readString(in));
+            prescription.setIssuedDate(readString(in));
+            prescription.setEhrID(readString(in));
+            return prescription;
+        }
+    }
+
+    private static void checkVersion(DataInput in, int expected, String type) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != expected) {
+            throw new IOException("Unsupported " + type + " record version: " + version);
+        }
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeIDs(DataOutput out, List<String> ids) throws IOException {
+        writeVarInt(out, ids.size());
+        for (String id : ids) {
+            writeString(out, id);
+        }
+    }
+
+    private static List<String> readIDs(DataInput in) throws IOException {
+        int count = readVarInt(in);
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(readString(in));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,31 @@
+package virtualcare.service.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-width binary layout for one model class, for stores that keep each
+ * entity in a slot of constant size and update it in place. Entities whose
+ * values do not fit the layout are rejected by {@link #fits} and have to be
+ * stored with the class's {@link EntityCodec} instead.
+ *
+ * Reads and writes use absolute positions in the buffer, so a slot can be
+ * decoded straight from a memory mapping.
+ */
+public interface SlotCodec<T> {
+
+    /**
+     * Size in bytes of every slot
+     */
+    int slotSize();
+
+    boolean fits(T entity);
+
+    void write(ByteBuffer buffer, int offset, T entity);
+
+    T read(ByteBuffer buffer, int offset);
+
+    /**
+     * Reads only the ID of the entity in a slot
+     */
+    String readID(ByteBuffer buffer, int offset);
+}
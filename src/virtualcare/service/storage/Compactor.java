@@ -0,0 +1,64 @@
+package virtualcare.service.storage;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes store snapshots on a background thread so that journals stay short.
+ *
+ * A store asks for compaction once replaying its journal would take longer
+ * than the replay budget, estimated from the replay speed measured on its
+ * last load. Restart time then stays bounded by the snapshot size and the
+ * budget, however long the system has been running.
+ */
+public class Compactor {
+    // Assumed replay speed until a store has measured its own
+    static final long DEFAULT_REPLAY_BYTES_PER_MS = 10_000;
+
+    private final long replayBudgetMillis;
+    private final ExecutorService executor;
+
+    /**
+     * @param replayBudgetMillis Longest journal replay a restart should need
+     */
+    public Compactor(long replayBudgetMillis) {
+        this.replayBudgetMillis = replayBudgetMillis;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    long getReplayBudgetMillis() {
+        return replayBudgetMillis;
+    }
+
+    void request(EntityStore<?> store) {
+        try {
+            executor.execute(() -> {
+                try {
+                    store.compact();
+                } catch (Exception e) {
+                    System.err.println("Error compacting store: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the journal is compacted on a later run
+        }
+    }
+
+    /**
+     * Waits for a snapshot in progress and stops the compaction thread
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
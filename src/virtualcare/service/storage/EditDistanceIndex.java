@@ -0,0 +1,174 @@
+package virtualcare.service.storage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+/**
+ * Finds the keys within an edit distance of a query, such as misspelled
+ * names, without comparing the query to every key. Entities whose key is
+ * null are left out.
+ *
+ * The distinct keys are kept sorted, which makes them a trie: the keys
+ * sharing a prefix are next to each other. A search walks that trie depth
+ * first, computing one row of the Levenshtein table per prefix from the row
+ * of its parent, and drops a prefix, with every key under it, as soon as no
+ * cell of its row is within the distance. Common prefixes are compared to
+ * the query once, and only the prefixes a few edits from it are visited.
+ */
+public class EditDistanceIndex<T> implements EntityIndex<T> {
+    private final Function<T, String> keyOf;
+    private final NavigableSet<String> keys = new ConcurrentSkipListSet<>();
+    private final Map<String, String> keyById = new ConcurrentHashMap<>();
+    // Entities filed under each key; a key is in the trie while it has any
+    private final Map<String, Integer> counts = new ConcurrentHashMap<>();
+
+    public EditDistanceIndex(Function<T, String> keyOf) {
+        this.keyOf = keyOf;
+    }
+
+    @Override
+    public void put(String id, T entity) {
+        String key = keyOf.apply(entity);
+        String previous = key != null ? keyById.put(id, key) : keyById.remove(id);
+        if (key != null && key.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            unfile(previous);
+        }
+        if (key != null) {
+            counts.compute(key, (k, count) -> {
+                if (count == null) {
+                    keys.add(k);
+                    return 1;
+                }
+                return count + 1;
+            });
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        String previous = keyById.remove(id);
+        if (previous != null) {
+            unfile(previous);
+        }
+    }
+
+    private void unfile(String key) {
+        counts.computeIfPresent(key, (k, count) -> {
+            if (count == 1) {
+                keys.remove(k);
+                return null;
+            }
+            return count - 1;
+        });
+    }
+
+    /**
+     * Keys within {@code maxDistance} edits (inserted, deleted or replaced
+     * characters) of the query, nearest first and alphabetical at the same
+     * distance
+     */
+    public List<Match> search(String query, int maxDistance) {
+        List<Match> matches = new ArrayList<>();
+        int[] first = new int[query.length() + 1];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = i;
+        }
+        walk(query, maxDistance, "", first, matches);
+        matches.sort(Comparator.comparingInt(Match::getDistance).thenComparing(Match::getKey));
+        return matches;
+    }
+
+    /**
+     * Visits the keys under the prefix, given the Levenshtein row of the
+     * prefix against the query
+     */
+    private void walk(String query, int maxDistance, String prefix, int[] row, List<Match> matches) {
+        int depth = prefix.length();
+        String key = keys.ceiling(prefix);
+        while (key != null && key.startsWith(prefix)) {
+            if (key.length() == depth) {
+                if (row[query.length()] <= maxDistance) {
+                    matches.add(new Match(key, row[query.length()]));
+                }
+                key = keys.higher(key);
+                continue;
+            }
+            char c = key.charAt(depth);
+            // First key past every key under the child
+            String after = c == Character.MAX_VALUE ? null : keys.ceiling(prefix + (char) (c + 1));
+            int[] next = nextRow(query, row, c);
+            if (min(next) <= maxDistance) {
+                if (key.equals(after != null ? keys.lower(after) : keys.last())) {
+                    // The only key under the child: follow its characters without looking up others
+                    finish(query, maxDistance, key, depth + 1, next, matches);
+                } else {
+                    walk(query, maxDistance, prefix + c, next, matches);
+                }
+            }
+            key = after;
+        }
+    }
+
+    private static void finish(String query, int maxDistance, String key, int depth, int[] row,
+            List<Match> matches) {
+        for (int i = depth; i < key.length(); i++) {
+            row = nextRow(query, row, key.charAt(i));
+            if (min(row) > maxDistance) {
+                return;
+            }
+        }
+        if (row[query.length()] <= maxDistance) {
+            matches.add(new Match(key, row[query.length()]));
+        }
+    }
+
+    /**
+     * The Levenshtein row of a prefix extended by {@code c}, from the row of the prefix
+     */
+    private static int[] nextRow(String query, int[] row, char c) {
+        int[] next = new int[row.length];
+        next[0] = row[0] + 1;
+        for (int i = 1; i < next.length; i++) {
+            next[i] = Math.min(Math.min(next[i - 1], row[i]) + 1, row[i - 1] + (query.charAt(i - 1) == c ? 0 : 1));
+        }
+        return next;
+    }
+
+    private static int min(int[] row) {
+        int min = row[0];
+        for (int value : row) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    /**
+     * A key within reach of a query and its edit distance from it
+     */
+    public static final class Match {
+        private final String key;
+        private final int distance;
+
+        Match(String key, int distance) {
+            this.key = key;
+            this.distance = distance;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getDistance() {
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package virtualcare.service.storage;
+
+/**
+ * Secondary index kept up to date by a {@link RecordStore}. The store calls
+ * it for every entity it loads, saves or removes, so an index is built while
+ * the store loads rather than in a separate pass over the records later.
+ *
+ * Entities are mutable and saved again under the same ID, so an index keeps
+ * what it derived from each ID and replaces it on the next put.
+ *
+ * Partitions of a store load concurrently, so implementations must be thread-safe.
+ */
+public interface EntityIndex<T> {
+
+    /**
+     * An entity was loaded or saved, possibly replacing an earlier version with the same ID
+     */
+    void put(String id, T entity);
+
+    void remove(String id);
+}
@@ -0,0 +1,363 @@
+package virtualcare.service.storage;
+
+import virtualcare.service.codec.EntityCodec;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal for a single entity type.
+ * Every save appends one record holding only the changed entity, so the cost
+ * of a save no longer depends on how many records are stored.
+ *
+ * File layout: a header (magic, version, ID high-water mark) followed by
+ * records of the form [length][body][crc32]. A torn record at the tail, for
+ * example after a crash mid-write, is dropped and truncated away on replay.
+ *
+ * A PUT body is the op byte followed by the {@link EntityCodec} encoding of
+ * the entity, and a DELETE body is the op byte and the ID. The high-water
+ * mark is a fixed slot in the header that is updated in place, so it can be
+ * read without replaying the records.
+ *
+ * Snapshots use the same format and hold one PUT record per live entity.
+ *
+ * Older journals can still be replayed so they can be migrated with
+ * {@link #rewrite}: version 2 has the same records but no high-water mark,
+ * and version 1 holds an ID plus a Java serialization payload per PUT.
+ */
+public class EntityJournal<T extends Serializable> {
+    private static final int MAGIC = 0x56434A4C; // "VCJL"
+    private static final int LEGACY_VERSION = 1;
+    private static final int NO_MARK_VERSION = 2;
+    private static final int VERSION = 3;
+    private static final int LEGACY_HEADER_SIZE = 8;
+    private static final int HEADER_SIZE = 16;
+    private static final long NO_MARK = -1;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    private final File file;
+    private final EntityCodec<T> codec;
+    private final Function<T, String> idOf;
+    private final RecordOutput record = new RecordOutput(256);
+    private final CRC32 crc = new CRC32();
+    private FileOutputStream out;
+    private int replayedVersion = VERSION;
+    private long highWaterMark = NO_MARK;
+
+    public EntityJournal(File file, EntityCodec<T> codec, Function<T, String> idOf) {
+        this.file = file;
+        this.codec = codec;
+        this.idOf = idOf;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends the current state of an entity
+     */
+    public void appendPut(T entity) throws IOException {
+        OutputStream stream = openForAppend();
+        writeRecord(stream, OP_PUT, null, entity);
+        stream.flush();
+    }
+
+    /**
+     * Appends a tombstone for a removed entity
+     */
+    public void appendDelete(String id) throws IOException {
+        OutputStream stream = openForAppend();
+        writeRecord(stream, OP_DELETE, id, null);
+        stream.flush();
+    }
+
+    /**
+     * Encodes a PUT record to be appended later with {@link #append}
+     */
+    public byte[] encodePut(T entity) throws IOException {
+        encodeRecord(OP_PUT, null, entity);
+        return Arrays.copyOf(record.array(), record.size());
+    }
+
+    /**
+     * Encodes a DELETE record to be appended later with {@link #append}
+     */
+    public byte[] encodeDelete(String id) throws IOException {
+        encodeRecord(OP_DELETE, id, null);
+        return Arrays.copyOf(record.array(), record.size());
+    }
+
+    /**
+     * Appends a batch of encoded records with one write, optionally followed by an fsync
+     */
+    public void append(List<byte[]> records, boolean sync) throws IOException {
+        FileOutputStream stream = openForAppend();
+        record.reset();
+        for (byte[] encoded : records) {
+            record.write(encoded);
+        }
+        record.writeTo(stream);
+        stream.flush();
+        if (sync) {
+            stream.getFD().sync();
+        }
+    }
+
+    /**
+     * Encodes one record into the reusable buffer and writes it with a single call
+     */
+    private void writeRecord(OutputStream stream, byte op, String id, T entity) throws IOException {
+        encodeRecord(op, id, entity);
+        record.writeTo(stream);
+    }
+
+    private void encodeRecord(byte op, String id, T entity) throws IOException {
+        record.reset();
+        record.writeInt(0); // length, patched below
+        record.writeByte(op);
+        if (entity != null) {
+            codec.write(record, entity);
+        } else {
+            record.writeUTF(id);
+        }
+        int bodyLength = record.size() - 4;
+        crc.reset();
+        crc.update(record.array(), 4, bodyLength);
+        record.writeInt((int) crc.getValue());
+        record.patchInt(0, bodyLength);
+    }
+
+    private FileOutputStream openForAppend() throws IOException {
+        if (out == null) {
+            boolean fresh = !file.exists() || file.length() == 0;
+            out = new FileOutputStream(file, true);
+            if (fresh) {
+                writeHeader(out);
+            }
+        }
+        return out;
+    }
+
+    private void writeHeader(OutputStream stream) throws IOException {
+        DataOutputStream header = new DataOutputStream(stream);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeLong(highWaterMark);
+        header.flush();
+    }
+
+    /**
+     * Reads the ID high-water mark from the header without replaying the
+     * journal, or returns -1 if the journal does not have one
+     */
+    public long readHighWaterMark() throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return highWaterMark;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                highWaterMark = in.readLong();
+            }
+        }
+        return highWaterMark;
+    }
+
+    /**
+     * Records a new ID high-water mark in the header. A journal in an older
+     * format keeps the mark in memory and gets it when it is rewritten.
+     */
+    public void writeHighWaterMark(long mark) throws IOException {
+        highWaterMark = mark;
+        if (!file.exists() || file.length() == 0) {
+            openForAppend().flush();
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() >= HEADER_SIZE && raf.readInt() == MAGIC && raf.readInt() == VERSION) {
+                raf.writeLong(mark);
+                raf.getFD().sync();
+            }
+        }
+    }
+
+    /**
+     * Whether the last replay read a journal in an older format
+     */
+    public boolean isLegacyFormat() {
+        return replayedVersion != VERSION;
+    }
+
+    /**
+     * Replaces the journal with one PUT record per entity in the current format.
+     * The new journal is written to a temp file and renamed over the old one.
+     */
+    public void rewrite(Collection<T> entities) throws IOException {
+        close();
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            BufferedOutputStream stream = new BufferedOutputStream(fos, 1 << 16);
+            writeHeader(stream);
+            for (T entity : entities) {
+                writeRecord(stream, OP_PUT, null, entity);
+            }
+            stream.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        replayedVersion = VERSION;
+    }
+
+    public long length() {
+        return file.length();
+    }
+
+    /**
+     * Drops the records before offset, which a snapshot now covers, keeping
+     * the header and the records written since. The remaining tail is copied
+     * to a temp file that is renamed over the journal.
+     */
+    public void truncateBefore(long offset) throws IOException {
+        close();
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileInputStream in = new FileInputStream(file);
+             FileOutputStream fos = new FileOutputStream(temp)) {
+            BufferedOutputStream stream = new BufferedOutputStream(fos, 1 << 16);
+            writeHeader(stream);
+            in.getChannel().position(offset);
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                stream.write(buffer, 0, n);
+            }
+            stream.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replays every valid record into the target map, in write order
+     */
+    @SuppressWarnings("unchecked")
+    public void replay(Map<String, T> target) throws IOException, ClassNotFoundException {
+        replayedVersion = VERSION;
+        if (!file.exists()) {
+            return;
+        }
+        close();
+
+        long fileLength = file.length();
+        if (fileLength < LEGACY_HEADER_SIZE) {
+            truncate(0);
+            return;
+        }
+
+        long validLength;
+        RecordInput recordIn = new RecordInput();
+        byte[] frame = new byte[4];
+        byte[] body = new byte[256];
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            DataInputStream header = new DataInputStream(in);
+            if (header.readInt() != MAGIC) {
+                throw new IOException("Not a journal file: " + file);
+            }
+            int version = header.readInt();
+            if (version == VERSION && fileLength < HEADER_SIZE) {
+                validLength = 0; // torn header, the journal is reset below
+            } else if (version == VERSION) {
+                highWaterMark = header.readLong();
+                validLength = HEADER_SIZE;
+            } else if (version == NO_MARK_VERSION || version == LEGACY_VERSION) {
+                validLength = LEGACY_HEADER_SIZE;
+            } else {
+                throw new IOException("Unsupported journal version " + version + " in " + file);
+            }
+            replayedVersion = version;
+
+            while (validLength > 0) {
+                if (!readFully(in, frame, 4)) {
+                    break;
+                }
+                int length = toInt(frame);
+                if (length <= 0 || validLength + length + 8 > fileLength) {
+                    break;
+                }
+                if (body.length < length) {
+                    body = new byte[Math.max(length, body.length * 2)];
+                }
+                if (!readFully(in, body, length) || !readFully(in, frame, 4)) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != toInt(frame)) {
+                    break;
+                }
+
+                recordIn.reset(body, 0, length);
+                byte op = recordIn.readByte();
+                if (op == OP_PUT && version == LEGACY_VERSION) {
+                    String id = recordIn.readUTF();
+                    int offset = recordIn.position();
+                    try (ObjectInputStream ois = new ObjectInputStream(
+                            new ByteArrayInputStream(body, offset, length - offset))) {
+                        target.put(id, (T) ois.readObject());
+                    }
+                } else if (op == OP_PUT) {
+                    T entity = codec.read(recordIn);
+                    target.put(idOf.apply(entity), entity);
+                } else if (op == OP_DELETE) {
+                    target.remove(recordIn.readUTF());
+                }
+                validLength += length + 8;
+            }
+        }
+
+        if (validLength < fileLength) {
+            System.err.println("Dropping torn journal tail in " + file + " at offset " + validLength);
+            truncate(validLength);
+        }
+    }
+
+    private static boolean readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                return false;
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    private static int toInt(byte[] b) {
+        return ((b[0] & 0xFF) << 24) | ((b[1] & 0xFF) << 16) | ((b[2] & 0xFF) << 8) | (b[3] & 0xFF);
+    }
+
+    private void truncate(long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    public void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+
+            }
+            out = null;
+        }
+    }
+}
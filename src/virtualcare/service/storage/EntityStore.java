@@ -0,0 +1,347 @@
+package virtualcare.service.storage;
+
+import virtualcare.service.codec.EntityCodec;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Keyed store for one entity type, backed by its entity journal.
+ *
+ * Data written by earlier versions (a Java-serialized .dat list plus a
+ * version 1 journal) is read once and migrated: the journal is rewritten in
+ * the compact codec format and the .dat file is renamed to .dat.migrated.
+ *
+ * After the first load the in-memory records are authoritative: reads are plain
+ * map lookups, and the files are only parsed again when their length or
+ * modification time shows they were changed by someone else.
+ *
+ * Stores are loaded on first use and may be loaded from a background thread.
+ * Loads and writes are serialized on the store; a load builds a new map and
+ * swaps it in, so readers never see a half-loaded store.
+ *
+ * With a {@link GroupCommitWriter} a save updates memory at once and queues
+ * the encoded record; the writer appends queued records in batches. Without
+ * one every save is appended synchronously.
+ *
+ * A load reads the latest snapshot, if any, and replays the journal on top.
+ * When the journal grows past what can be replayed within the
+ * {@link Compactor}'s budget, a new snapshot is written in the background and
+ * the journal is cut down to the records saved since.
+ */
+public class EntityStore<T extends Serializable> implements RecordStore<T> {
+    private final File legacyFile;
+    private final File snapshotFile;
+    private final EntityJournal<T> journal;
+    private final EntityCodec<T> codec;
+    private final Function<T, String> idOf;
+    private final GroupCommitWriter writer;
+    private final Compactor compactor;
+    private final Map<String, PendingWrite<T>> pending = new LinkedHashMap<>();
+    private final List<EntityIndex<T>> indexes = new CopyOnWriteArrayList<>();
+    private volatile Map<String, T> records;
+    private boolean loaded;
+    private FileStamp legacyStamp;
+    private FileStamp journalStamp;
+    private FileStamp snapshotStamp;
+    private long replayBytesPerMs = Compactor.DEFAULT_REPLAY_BYTES_PER_MS;
+    private boolean compactionQueued;
+
+    /**
+     * @param writer Writer that batches saves in the background, or null to write synchronously
+     * @param compactor Compactor that snapshots the store, or null to never compact
+     */
+    public EntityStore(File legacyFile, File journalFile, File snapshotFile, Function<T, String> idOf,
+            EntityCodec<T> codec, GroupCommitWriter writer, Compactor compactor) {
+        this.legacyFile = legacyFile;
+        this.snapshotFile = snapshotFile;
+        this.journal = new EntityJournal<>(journalFile, codec, idOf);
+        this.codec = codec;
+        this.idOf = idOf;
+        this.writer = writer;
+        this.compactor = compactor;
+        this.records = new ConcurrentHashMap<>();
+        if (writer != null) {
+            writer.register(this);
+        }
+    }
+
+    /**
+     * Rebuilds the in-memory records from the snapshot and journal, migrating legacy data first
+     */
+    public synchronized void load() throws IOException, ClassNotFoundException {
+        loaded = false;
+        Map<String, T> loadedRecords = new ConcurrentHashMap<>();
+        if (snapshotFile.exists()) {
+            new EntityJournal<>(snapshotFile, codec, idOf).replay(loadedRecords);
+        }
+        boolean migrate = legacyFile.exists();
+        if (migrate) {
+            readLegacyFile(loadedRecords);
+        }
+        long replayStart = System.nanoTime();
+        journal.replay(loadedRecords);
+        long replayMillis = (System.nanoTime() - replayStart) / 1_000_000;
+        long journalBytes = journal.length();
+        if (journalBytes >= 1 << 20 && replayMillis > 0) {
+            replayBytesPerMs = journalBytes / replayMillis;
+        }
+        if (migrate || journal.isLegacyFormat()) {
+            journal.rewrite(loadedRecords.values());
+            if (legacyFile.exists()) {
+                legacyFile.renameTo(new File(legacyFile.getPath() + ".migrated"));
+            }
+        }
+        // Saves still waiting for the writer are newer than anything on disk
+        for (Map.Entry<String, PendingWrite<T>> entry : pending.entrySet()) {
+            T entity = entry.getValue().entity;
+            if (entity != null) {
+                loadedRecords.put(entry.getKey(), entity);
+            } else {
+                loadedRecords.remove(entry.getKey());
+            }
+        }
+        updateIndexes(records, loadedRecords);
+        records = loadedRecords;
+        legacyStamp = FileStamp.of(legacyFile);
+        journalStamp = FileStamp.of(journal.getFile());
+        snapshotStamp = FileStamp.of(snapshotFile);
+        loaded = true;
+        checkCompaction(compactor != null && replayMillis > compactor.getReplayBudgetMillis());
+    }
+
+    /**
+     * Brings the indexes from the previously loaded records to the new ones
+     */
+    private void updateIndexes(Map<String, T> previous, Map<String, T> current) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        for (String id : previous.keySet()) {
+            if (!current.containsKey(id)) {
+                for (EntityIndex<T> index : indexes) {
+                    index.remove(id);
+                }
+            }
+        }
+        for (Map.Entry<String, T> entry : current.entrySet()) {
+            for (EntityIndex<T> index : indexes) {
+                index.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void addIndex(EntityIndex<T> index) {
+        indexes.add(index);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readLegacyFile(Map<String, T> target) throws IOException, ClassNotFoundException {
+        if (legacyFile.exists()) {
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(legacyFile))) {
+                List<T> legacyRecords = (List<T>) ois.readObject();
+                for (T entity : legacyRecords) {
+                    target.put(idOf.apply(entity), entity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the store on first use, and reloads it only if its files changed on disk
+     */
+    public synchronized void refresh() throws IOException, ClassNotFoundException {
+        if (!loaded
+                || !legacyStamp.equals(FileStamp.of(legacyFile))
+                || !journalStamp.equals(FileStamp.of(journal.getFile()))
+                || !snapshotStamp.equals(FileStamp.of(snapshotFile))) {
+            load();
+        }
+    }
+
+    public synchronized void put(T entity) throws IOException {
+        String id = idOf.apply(entity);
+        records.put(id, entity);
+        for (EntityIndex<T> index : indexes) {
+            index.put(id, entity);
+        }
+        if (writer == null) {
+            journal.appendPut(entity);
+            journalStamp = FileStamp.of(journal.getFile());
+            checkCompaction(false);
+            return;
+        }
+        // Encoded now so the writer persists the state as of this save
+        pending.put(id, new PendingWrite<>(entity, journal.encodePut(entity)));
+        writer.schedule(this);
+    }
+
+    public synchronized boolean remove(String id) throws IOException {
+        if (id == null || records.remove(id) == null) {
+            return false;
+        }
+        for (EntityIndex<T> index : indexes) {
+            index.remove(id);
+        }
+        if (writer == null) {
+            journal.appendDelete(id);
+            journalStamp = FileStamp.of(journal.getFile());
+            checkCompaction(false);
+            return true;
+        }
+        pending.put(id, new PendingWrite<>(null, journal.encodeDelete(id)));
+        writer.schedule(this);
+        return true;
+    }
+
+    /**
+     * Appends all queued saves to the journal with one write and fsync.
+     * On failure they stay queued.
+     */
+    public synchronized void flushPending() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<byte[]> batch = new ArrayList<>(pending.size());
+        for (PendingWrite<T> write : pending.values()) {
+            batch.add(write.record);
+        }
+        journal.append(batch, true);
+        pending.clear();
+        journalStamp = FileStamp.of(journal.getFile());
+        checkCompaction(false);
+    }
+
+    /**
+     * Asks for a snapshot once the journal would take longer than the budget to replay
+     */
+    private void checkCompaction(boolean force) {
+        if (compactor == null || compactionQueued || !loaded) {
+            return;
+        }
+        if (force || journal.length() > compactor.getReplayBudgetMillis() * replayBytesPerMs) {
+            compactionQueued = true;
+            compactor.request(this);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current records and drops the journal records
+     * it covers. The snapshot is written outside the store lock, so saves
+     * continue meanwhile and end up in the shortened journal.
+     *
+     * A crash before the journal is cut leaves a new snapshot next to the full
+     * journal; replaying the journal over it still gives the right records.
+     */
+    void compact() throws IOException {
+        List<T> image;
+        long coveredLength;
+        synchronized (this) {
+            if (!loaded) {
+                compactionQueued = false;
+                return;
+            }
+            flushPending();
+            image = new ArrayList<>(records.values());
+            coveredLength = journal.length();
+        }
+        try {
+            // A separate instance, as load() may replay the snapshot concurrently
+            new EntityJournal<>(snapshotFile, codec, idOf).rewrite(image);
+            synchronized (this) {
+                flushPending();
+                journal.truncateBefore(coveredLength);
+                journalStamp = FileStamp.of(journal.getFile());
+                snapshotStamp = FileStamp.of(snapshotFile);
+            }
+        } finally {
+            synchronized (this) {
+                compactionQueued = false;
+            }
+        }
+    }
+
+    /**
+     * Reads the ID high-water mark kept in the journal header, or -1 if none
+     * was recorded. Does not load the store.
+     */
+    public synchronized long readHighWaterMark() throws IOException {
+        return journal.readHighWaterMark();
+    }
+
+    public synchronized void writeHighWaterMark(long mark) throws IOException {
+        journal.writeHighWaterMark(mark);
+        if (loaded) {
+            // Our own header update is not an external change
+            journalStamp = FileStamp.of(journal.getFile());
+        }
+    }
+
+    public T get(String id) {
+        return id != null ? records.get(id) : null;
+    }
+
+    public boolean contains(String id) {
+        return id != null && records.containsKey(id);
+    }
+
+    public Collection<T> values() {
+        return records.values();
+    }
+
+    public synchronized void close() {
+        try {
+            flushPending();
+        } catch (IOException e) {
+            System.err.println("Error writing pending saves to " + journal.getFile() + ": " + e.getMessage());
+        }
+        journal.close();
+    }
+
+    /**
+     * A save waiting for the writer; entity is null for a removal
+     */
+    private static final class PendingWrite<T> {
+        private final T entity;
+        private final byte[] record;
+
+        private PendingWrite(T entity, byte[] record) {
+            this.entity = entity;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Length and modification time of a file, used to notice external changes
+     */
+    private static final class FileStamp {
+        private final long length;
+        private final long lastModified;
+
+        private FileStamp(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        static FileStamp of(File file) {
+            return new FileStamp(file.length(), file.lastModified());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileStamp)) {
+                return false;
+            }
+            FileStamp other = (FileStamp) o;
+            return length == other.length && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(length) * 31 + Long.hashCode(lastModified);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package virtualcare.service.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Background thread that writes the pending saves of entity stores.
+ *
+ * A save only queues the encoded record on its store and marks the store
+ * dirty. The writer then waits for the commit window so that the other saves
+ * of the same UI action can join, and writes each dirty store's batch with a
+ * single append and fsync. Saving the same entity again within the window
+ * replaces the queued record, so only the latest state is written.
+ *
+ * {@link #flush()} is a barrier for callers that need their saves on disk
+ * before continuing.
+ */
+public class GroupCommitWriter {
+    private final long windowMillis;
+    private final Set<EntityStore<?>> stores = new LinkedHashSet<>();
+    private final Set<EntityStore<?>> dirty = new LinkedHashSet<>();
+    private final Thread thread;
+    private boolean closed;
+
+    /**
+     * @param windowMillis How long saves may wait to be batched before they are written
+     */
+    public GroupCommitWriter(long windowMillis) {
+        this.windowMillis = windowMillis;
+        this.thread = new Thread(this::run, "GroupCommitWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized void register(EntityStore<?> store) {
+        stores.add(store);
+    }
+
+    /**
+     * Marks a store as having pending saves. Once the writer is closed the
+     * saves are written straight away on the caller's thread.
+     */
+    void schedule(EntityStore<?> store) throws IOException {
+        synchronized (this) {
+            if (!closed) {
+                if (dirty.add(store)) {
+                    notifyAll();
+                }
+                return;
+            }
+        }
+        store.flushPending();
+    }
+
+    private void run() {
+        while (true) {
+            List<EntityStore<?>> batch;
+            try {
+                synchronized (this) {
+                    while (dirty.isEmpty() && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+                // Let the rest of the caller's saves arrive so they share one write
+                Thread.sleep(windowMillis);
+                synchronized (this) {
+                    batch = new ArrayList<>(dirty);
+                    dirty.clear();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (EntityStore<?> store : batch) {
+                try {
+                    store.flushPending();
+                } catch (IOException e) {
+                    System.err.println("Error writing journal, will retry: " + e.getMessage());
+                    synchronized (this) {
+                        dirty.add(store);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes every pending save, including a batch the writer thread is
+     * currently writing, before returning
+     */
+    public void flush() throws IOException {
+        List<EntityStore<?>> all;
+        synchronized (this) {
+            all = new ArrayList<>(stores);
+        }
+        for (EntityStore<?> store : all) {
+            store.flushPending();
+        }
+    }
+
+    /**
+     * Stops the writer thread and writes what is still pending
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
@@ -0,0 +1,37 @@
+package virtualcare.service.storage;
+
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The IDs of a store in a stable order, so records can be listed a page at a
+ * time: a page starts after the last ID of the previous one and only reads as
+ * many records as it returns.
+ *
+ * IDs are ordered by length first, so sequential IDs such as APT9 and APT10
+ * come in the order they were handed out.
+ */
+public class IdOrderIndex<T> implements EntityIndex<T> {
+    public static final Comparator<String> ID_ORDER =
+            Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+
+    private final ConcurrentSkipListSet<String> ids = new ConcurrentSkipListSet<>(ID_ORDER);
+
+    @Override
+    public void put(String id, T entity) {
+        ids.add(id);
+    }
+
+    @Override
+    public void remove(String id) {
+        ids.remove(id);
+    }
+
+    /**
+     * Live view of the IDs that come after the cursor, or of all IDs if the cursor is null
+     */
+    public NavigableSet<String> after(String cursor) {
+        return cursor != null ? ids.tailSet(cursor, false) : ids;
+    }
+}
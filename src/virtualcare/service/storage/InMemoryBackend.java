@@ -0,0 +1,32 @@
+package virtualcare.service.storage;
+
+import virtualcare.service.codec.EntityCodec;
+import java.io.File;
+import java.io.Serializable;
+import java.util.function.Function;
+
+/**
+ * Backend that persists nothing. Every store starts empty, which makes it a
+ * baseline for load tests: the measured cost is the application's own.
+ */
+public class InMemoryBackend implements StorageBackend {
+
+    @Override
+    public <T extends Serializable> RecordStore<T> open(String name, Function<T, String> idOf,
+            EntityCodec<T> codec, boolean highVolume) {
+        return new InMemoryStore<>(idOf);
+    }
+
+    @Override
+    public File getDirectory() {
+        return null;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
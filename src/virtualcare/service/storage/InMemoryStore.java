@@ -0,0 +1,82 @@
+package virtualcare.service.storage;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Store that only keeps its records in memory. Everything is lost when the
+ * application exits; meant for load tests and benchmarks.
+ */
+public class InMemoryStore<T extends Serializable> implements RecordStore<T> {
+    private final Function<T, String> idOf;
+    private final Map<String, T> records = new ConcurrentHashMap<>();
+    private final List<EntityIndex<T>> indexes = new CopyOnWriteArrayList<>();
+    private volatile long highWaterMark = -1;
+
+    public InMemoryStore(Function<T, String> idOf) {
+        this.idOf = idOf;
+    }
+
+    @Override
+    public void refresh() {
+    }
+
+    @Override
+    public void put(T entity) {
+        String id = idOf.apply(entity);
+        records.put(id, entity);
+        for (EntityIndex<T> index : indexes) {
+            index.put(id, entity);
+        }
+    }
+
+    @Override
+    public boolean remove(String id) {
+        if (id == null || records.remove(id) == null) {
+            return false;
+        }
+        for (EntityIndex<T> index : indexes) {
+            index.remove(id);
+        }
+        return true;
+    }
+
+    @Override
+    public T get(String id) {
+        return id != null ? records.get(id) : null;
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return id != null && records.containsKey(id);
+    }
+
+    @Override
+    public Collection<T> values() {
+        return records.values();
+    }
+
+    @Override
+    public void addIndex(EntityIndex<T> index) {
+        indexes.add(index);
+    }
+
+    @Override
+    public long readHighWaterMark() {
+        return highWaterMark;
+    }
+
+    @Override
+    public void writeHighWaterMark(long mark) {
+        highWaterMark = mark;
+    }
+
+    @Override
+    public void close() {
+    }
+}
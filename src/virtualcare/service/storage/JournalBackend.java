@@ -0,0 +1,122 @@
+package virtualcare.service.storage;
+
+import virtualcare.service.codec.EntityCodec;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * The default backend: each entity type is an {@link EntityStore} with an
+ * append-only journal and snapshot, and high-volume types are split into a
+ * {@link ShardedStore}. Saves are batched by a {@link GroupCommitWriter} and
+ * journals are kept short by a {@link Compactor}.
+ */
+public class JournalBackend implements StorageBackend {
+    public static final int DEFAULT_SHARD_COUNT = 8;
+
+    private static final String JOURNAL_SUFFIX = ".log";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final File directory;
+    private final int shardCount;
+    private final GroupCommitWriter writer;
+    private final Compactor compactor;
+    private final ExecutorService shardLoader;
+    private final List<RecordStore<?>> stores = new ArrayList<>();
+
+    /**
+     * @param commitWindowMillis How long saves may wait to be written together; 0 writes every save synchronously
+     * @param replayBudgetMillis Longest journal replay a restart should need before a snapshot is taken
+     * @param shardCount Partitions of a new high-volume store, or 0 for the default; existing stores keep theirs
+     * @param loaderThreads Threads loading the partitions of a store
+     */
+    public JournalBackend(File directory, long commitWindowMillis, long replayBudgetMillis, int shardCount,
+            int loaderThreads) {
+        this.directory = directory;
+        this.shardCount = shardCount;
+        this.writer = commitWindowMillis > 0 ? new GroupCommitWriter(commitWindowMillis) : null;
+        this.compactor = new Compactor(replayBudgetMillis);
+        this.shardLoader = Executors.newFixedThreadPool(loaderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "Shard-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        directory.mkdirs();
+    }
+
+    /**
+     * Opens a store; an existing .dat file from earlier versions is migrated
+     * into the journal on first load
+     */
+    @Override
+    public synchronized <T extends Serializable> RecordStore<T> open(String name, Function<T, String> idOf,
+            EntityCodec<T> codec, boolean highVolume) {
+        RecordStore<T> store;
+        if (highVolume) {
+            File base = new File(directory, name);
+            ShardedStore<T> sharded;
+            try {
+                sharded = new ShardedStore<>(base, base, shardCount > 0 ? shardCount : DEFAULT_SHARD_COUNT,
+                        idOf, codec, writer, compactor, shardLoader);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (shardCount > 0 && sharded.getShardCount() != shardCount) {
+                System.err.println(base + " has " + sharded.getShardCount() + " shards, not " + shardCount
+                        + "; run virtualcare.tools.Reshard to change it");
+            }
+            store = sharded;
+        } else {
+            store = new EntityStore<>(new File(directory, name + ".dat"), new File(directory, name + JOURNAL_SUFFIX),
+                    new File(directory, name + SNAPSHOT_SUFFIX), idOf, codec, writer, compactor);
+        }
+        stores.add(store);
+        return store;
+    }
+
+    @Override
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        compactor.close();
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing pending saves: " + e.getMessage());
+        }
+        for (RecordStore<?> store : stores) {
+            store.close();
+        }
+        shardLoader.shutdown();
+    }
+
+    /**
+     * Rewrites a high-volume store with a new shard count. Must only be run
+     * while the application is stopped.
+     *
+     * @return Number of records moved
+     */
+    public static <T extends Serializable> int reshard(File directory, String name, int shardCount,
+            Function<T, String> idOf, EntityCodec<T> codec) throws IOException, ClassNotFoundException {
+        File base = new File(directory, name);
+        return ShardedStore.reshard(base, base, shardCount, idOf, codec);
+    }
+}
@@ -0,0 +1,104 @@
+package virtualcare.service.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Groups the IDs of a store by a key derived from each entity, such as the
+ * provider of an appointment, so the records of one key are found without
+ * looking at the others. Entities whose key is null are left out.
+ *
+ * The IDs of a key are kept in {@link IdOrderIndex#ID_ORDER}, so they can
+ * be paged the same way as a whole store. The key each ID was filed under is
+ * remembered, as a removal or a save that changes the key only gets the ID.
+ * IDs are counted per key as they are filed, as the size of a skip list
+ * takes a walk over it.
+ */
+public class KeyIndex<T> implements EntityIndex<T> {
+    private final Function<T, String> keyOf;
+    private final Map<String, NavigableSet<String>> idsByKey = new ConcurrentHashMap<>();
+    private final Map<String, String> keyById = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+    public KeyIndex(Function<T, String> keyOf) {
+        this.keyOf = keyOf;
+    }
+
+    @Override
+    public void put(String id, T entity) {
+        String key = keyOf.apply(entity);
+        String previous = key != null ? keyById.put(id, key) : keyById.remove(id);
+        if (previous != null && !previous.equals(key)) {
+            unfile(previous, id);
+        }
+        if (key != null && idsByKey.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>(IdOrderIndex.ID_ORDER))
+                .add(id)) {
+            countOf(key).incrementAndGet();
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        String key = keyById.remove(id);
+        if (key != null) {
+            unfile(key, id);
+        }
+    }
+
+    private void unfile(String key, String id) {
+        NavigableSet<String> ids = idsByKey.get(key);
+        if (ids != null && ids.remove(id)) {
+            countOf(key).decrementAndGet();
+        }
+    }
+
+    private AtomicInteger countOf(String key) {
+        return counts.computeIfAbsent(key, k -> new AtomicInteger());
+    }
+
+    /**
+     * Number of IDs filed under the key, in constant time
+     */
+    public int count(String key) {
+        AtomicInteger count = key != null ? counts.get(key) : null;
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * The keys with at least {@code minCount} IDs filed under them, sorted
+     */
+    public List<String> keysWithAtLeast(int minCount) {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, AtomicInteger> entry : counts.entrySet()) {
+            if (entry.getValue().get() >= minCount) {
+                keys.add(entry.getKey());
+            }
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Live view of the IDs filed under the key
+     */
+    public NavigableSet<String> get(String key) {
+        NavigableSet<String> ids = key != null ? idsByKey.get(key) : null;
+        return ids != null ? ids : Collections.emptyNavigableSet();
+    }
+
+    /**
+     * Live view of the IDs filed under the key that come after the cursor,
+     * or of all of them if the cursor is null
+     */
+    public NavigableSet<String> after(String key, String cursor) {
+        NavigableSet<String> ids = get(key);
+        return cursor != null ? ids.tailSet(cursor, false) : ids;
+    }
+}
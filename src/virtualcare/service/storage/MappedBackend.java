@@ -0,0 +1,117 @@
+package virtualcare.service.storage;
+
+import virtualcare.service.codec.EntityCodec;
+import virtualcare.service.codec.SlotCodec;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Backend that keeps each entity type in a memory-mapped {@link MappedStore}
+ * file (patients.mm, appointments.mm, ...). Types with a slot layout are kept
+ * in a {@link SlottedStore} (appointments.slots), with the .mm file holding
+ * the entities that do not fit. Saves need no system call and no background
+ * writer; {@link #flush()} forces them to disk.
+ *
+ * The files are separate from those of the journal backend, so this backend
+ * starts with its own data.
+ *
+ * Each store keeps the end of its records in memory and reads the files
+ * only once, so only one process may use a data directory. The backend
+ * holds an exclusive lock on a mmap.lock file in the directory until it is
+ * closed, and a second process fails at startup instead of appending over
+ * the first one's records.
+ */
+public class MappedBackend implements StorageBackend {
+    private static final String FILE_SUFFIX = ".mm";
+    private static final String SLOTS_SUFFIX = ".slots";
+    private static final String LOCK_FILE = "mmap.lock";
+
+    private final File directory;
+    private final List<MappedStore<?>> stores = new ArrayList<>();
+    private final List<SlottedStore<?>> slottedStores = new ArrayList<>();
+    // Open while the backend holds the directory; closing it releases the lock
+    private final FileChannel lockChannel;
+
+    /**
+     * @throws IllegalStateException If another process has the directory open
+     */
+    public MappedBackend(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+        File lockFile = new File(directory, LOCK_FILE);
+        FileLock acquired;
+        try {
+            lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                acquired = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // Held by another backend in this process
+                acquired = null;
+            }
+            if (acquired == null) {
+                lockChannel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (acquired == null) {
+            throw new IllegalStateException(directory + " is in use by another process (" + lockFile + ")");
+        }
+    }
+
+    @Override
+    public synchronized <T extends Serializable> RecordStore<T> open(String name, Function<T, String> idOf,
+            EntityCodec<T> codec, boolean highVolume) {
+        MappedStore<T> store = new MappedStore<>(new File(directory, name + FILE_SUFFIX), codec, idOf);
+        stores.add(store);
+        return store;
+    }
+
+    @Override
+    public synchronized <T extends Serializable> RecordStore<T> open(String name, Function<T, String> idOf,
+            EntityCodec<T> codec, SlotCodec<T> slotCodec, boolean highVolume) {
+        MappedStore<T> overflow = new MappedStore<>(new File(directory, name + FILE_SUFFIX), codec, idOf);
+        SlottedStore<T> store = new SlottedStore<>(new File(directory, name + SLOTS_SUFFIX), slotCodec, idOf, overflow);
+        slottedStores.add(store);
+        return store;
+    }
+
+    @Override
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized void flush() {
+        for (MappedStore<?> store : stores) {
+            store.flush();
+        }
+        for (SlottedStore<?> store : slottedStores) {
+            store.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (MappedStore<?> store : stores) {
+            store.close();
+        }
+        for (SlottedStore<?> store : slottedStores) {
+            store.close();
+        }
+        try {
+            lockChannel.close();
+        } catch (IOException e) {
+            System.err.println("Error releasing " + new File(directory, LOCK_FILE) + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package virtualcare.service.storage;
+
+import virtualcare.service.codec.EntityCodec;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Store for one entity type whose record log is a memory-mapped file.
+ *
+ * File layout: a header (magic, version, ID high-water mark, end of the
+ * records) followed by records of the form [length][body][crc32], where the
+ * body is an op byte plus the {@link EntityCodec} encoding of the entity, or
+ * plus the ID for a delete. The file is mapped in one piece and grown by
+ * doubling, so a save is a copy into the mapping and an update of the end
+ * offset, with no system call. The end offset is written after the record,
+ * so a record is only visible once it is complete.
+ *
+ * Saves reach the page cache at once and survive a crash of the application;
+ * {@link #flush()} forces them to disk. The log is rewritten with only the
+ * live records on load once superseded records make up most of it. A file
+ * is limited to 2 GB, the largest single mapping.
+ */
+public class MappedStore<T extends Serializable> implements RecordStore<T> {
+    private static final int MAGIC = 0x56434D4D; // "VCMM"
+    private static final int VERSION = 1;
+    private static final int MARK_OFFSET = 8;
+    private static final int END_OFFSET = 16;
+    private static final int HEADER_SIZE = 24;
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    private final File file;
+    private final EntityCodec<T> codec;
+    private final Function<T, String> idOf;
+    private final RecordOutput record = new RecordOutput(256);
+    private final RecordInput input = new RecordInput();
+    private final CRC32 crc = new CRC32();
+    private final List<EntityIndex<T>> indexes = new CopyOnWriteArrayList<>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int end;
+    private volatile Map<String, T> records = new ConcurrentHashMap<>();
+    private boolean loaded;
+
+    public MappedStore(File file, EntityCodec<T> codec, Function<T, String> idOf) {
+        this.file = file;
+        this.codec = codec;
+        this.idOf = idOf;
+    }
+
+    private void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            map(INITIAL_SIZE);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(MARK_OFFSET, -1);
+            buffer.putLong(END_OFFSET, HEADER_SIZE);
+            end = HEADER_SIZE;
+            return;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Mapped store larger than 2 GB: " + file);
+        }
+        map((int) size);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a mapped store file: " + file);
+        }
+        end = (int) Math.max(HEADER_SIZE, Math.min(buffer.getLong(END_OFFSET), size));
+    }
+
+    private void map(int size) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    @Override
+    public synchronized void refresh() throws IOException {
+        if (!loaded) {
+            load();
+        }
+    }
+
+    private void load() throws IOException {
+        open();
+        Map<String, T> loadedRecords = new ConcurrentHashMap<>();
+        int position = HEADER_SIZE;
+        int count = 0;
+        byte[] body = new byte[256];
+        while (position + 4 <= end) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || (long) position + length + 8 > end) {
+                break;
+            }
+            if (body.length < length) {
+                body = new byte[Math.max(length, body.length * 2)];
+            }
+            buffer.position(position + 4);
+            buffer.get(body, 0, length);
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4 + length)) {
+                break;
+            }
+            input.reset(body, 0, length);
+            byte op = input.readByte();
+            if (op == OP_PUT) {
+                T entity = codec.read(input);
+                loadedRecords.put(idOf.apply(entity), entity);
+            } else if (op == OP_DELETE) {
+                loadedRecords.remove(input.readUTF());
+            }
+            position += length + 8;
+            count++;
+        }
+        if (position < end) {
+            System.err.println("Dropping damaged records in " + file + " at offset " + position);
+            end = position;
+            buffer.putLong(END_OFFSET, end);
+        }
+        for (Map.Entry<String, T> entry : loadedRecords.entrySet()) {
+            for (EntityIndex<T> index : indexes) {
+                index.put(entry.getKey(), entry.getValue());
+            }
+        }
+        records = loadedRecords;
+        loaded = true;
+        if (count > 2 * loadedRecords.size() + 1000) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Replaces the file with one holding only the live records. The new file
+     * is written to a temp file and renamed over the old one.
+     */
+    private void rewrite() throws IOException {
+        long mark = buffer.getLong(MARK_OFFSET);
+        close();
+        File temp = new File(file.getPath() + ".tmp");
+        long length = HEADER_SIZE;
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            BufferedOutputStream stream = new BufferedOutputStream(fos, 1 << 16);
+            stream.write(new byte[HEADER_SIZE]);
+            for (T entity : records.values()) {
+                encode(OP_PUT, null, entity);
+                record.writeTo(stream);
+                length += record.size();
+            }
+            stream.flush();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Mapped store larger than 2 GB: " + file);
+            }
+            fos.getChannel().position(0);
+            DataOutputStream header = new DataOutputStream(fos);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(mark);
+            header.writeLong(length);
+            header.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+    }
+
+    private void encode(byte op, String id, T entity) throws IOException {
+        record.reset();
+        record.writeInt(0); // length, patched below
+        record.writeByte(op);
+        if (entity != null) {
+            codec.write(record, entity);
+        } else {
+            record.writeUTF(id);
+        }
+        int bodyLength = record.size() - 4;
+        crc.reset();
+        crc.update(record.array(), 4, bodyLength);
+        record.writeInt((int) crc.getValue());
+        record.patchInt(0, bodyLength);
+    }
+
+    /**
+     * Copies the encoded record into the mapping, then publishes the new end
+     */
+    private void append() throws IOException {
+        int size = record.size();
+        if ((long) end + size > buffer.capacity()) {
+            grow((long) end + size);
+        }
+        buffer.position(end);
+        buffer.put(record.array(), 0, size);
+        end += size;
+        buffer.putLong(END_OFFSET, end);
+    }
+
+    private void grow(long required) throws IOException {
+        long size = buffer.capacity();
+        while (size < required) {
+            size *= 2;
+        }
+        if (size > Integer.MAX_VALUE) {
+            if (required > Integer.MAX_VALUE) {
+                throw new IOException("Mapped store is full: " + file);
+            }
+            size = Integer.MAX_VALUE;
+        }
+        map((int) size);
+    }
+
+    @Override
+    public synchronized void put(T entity) throws IOException {
+        open();
+        encode(OP_PUT, null, entity);
+        append();
+        String id = idOf.apply(entity);
+        records.put(id, entity);
+        for (EntityIndex<T> index : indexes) {
+            index.put(id, entity);
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(String id) throws IOException {
+        if (id == null || records.remove(id) == null) {
+            return false;
+        }
+        open();
+        encode(OP_DELETE, id, null);
+        append();
+        for (EntityIndex<T> index : indexes) {
+            index.remove(id);
+        }
+        return true;
+    }
+
+    @Override
+    public T get(String id) {
+        return id != null ? records.get(id) : null;
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return id != null && records.containsKey(id);
+    }
+
+    @Override
+    public Collection<T> values() {
+        return records.values();
+    }
+
+    @Override
+    public void addIndex(EntityIndex<T> index) {
+        indexes.add(index);
+    }
+
+    @Override
+    public synchronized long readHighWaterMark() throws IOException {
+        open();
+        return buffer.getLong(MARK_OFFSET);
+    }
+
+    /**
+     * The mark is forced to disk at once, as a lost lease could hand out an ID twice
+     */
+    @Override
+    public synchronized void writeHighWaterMark(long mark) throws IOException {
+        open();
+        buffer.putLong(MARK_OFFSET, mark);
+        buffer.force();
+    }
+
+    /**
+     * Forces saves made so far to disk
+     */
+    public synchronized void flush() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        buffer.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+
+        }
+        // The mapping stays valid until it is garbage collected
+        channel = null;
+        buffer = null;
+    }
+}
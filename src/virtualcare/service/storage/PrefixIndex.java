@@ -0,0 +1,111 @@
+package virtualcare.service.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+/**
+ * Completes what a user is typing: finds the entities with a field, or a
+ * word of a field, that starts with a prefix, in O(log n + k). Every field
+ * and every later word of it is filed as a term, so "smi" finds "John Smith"
+ * and "card" finds "Cardiology".
+ *
+ * Terms are kept in one skip list ordered by term and then
+ * {@link IdOrderIndex#ID_ORDER}, so the entries starting with a prefix sit
+ * next to each other, shortest and alphabetically first at the front. Fields
+ * are matched as given; the caller folds case on both sides.
+ */
+public class PrefixIndex<T> implements EntityIndex<T> {
+    private final Function<T, String[]> fieldsOf;
+    private final NavigableSet<Entry> entries = new ConcurrentSkipListSet<>();
+    private final Map<String, List<Entry>> byId = new ConcurrentHashMap<>();
+
+    /**
+     * @param fieldsOf The fields to complete; null fields are skipped
+     */
+    public PrefixIndex(Function<T, String[]> fieldsOf) {
+        this.fieldsOf = fieldsOf;
+    }
+
+    @Override
+    public void put(String id, T entity) {
+        List<Entry> filed = new ArrayList<>();
+        for (String field : fieldsOf.apply(entity)) {
+            if (field == null) {
+                continue;
+            }
+            String term = field.trim();
+            while (!term.isEmpty()) {
+                filed.add(new Entry(term, id));
+                int space = term.indexOf(' ');
+                term = space < 0 ? "" : term.substring(space + 1).trim();
+            }
+        }
+        List<Entry> previous = byId.put(id, filed);
+        if (previous != null) {
+            // Unchanged terms are removed and filed again
+            entries.removeAll(previous);
+        }
+        entries.addAll(filed);
+    }
+
+    @Override
+    public void remove(String id) {
+        List<Entry> previous = byId.remove(id);
+        if (previous != null) {
+            entries.removeAll(previous);
+        }
+    }
+
+    /**
+     * IDs of up to {@code limit} entities with a term starting with the
+     * prefix, each listed once, ordered by their first matching term
+     */
+    public List<String> complete(String prefix, int limit) {
+        Set<String> ids = new LinkedHashSet<>();
+        if (prefix.isEmpty()) {
+            return new ArrayList<>(ids);
+        }
+        // Sorts after every term that starts with the prefix
+        String end = prefix + Character.MAX_VALUE;
+        for (Entry entry : entries.subSet(new Entry(prefix, ""), true, new Entry(end, ""), false)) {
+            if (ids.size() == limit) {
+                break;
+            }
+            ids.add(entry.id);
+        }
+        return new ArrayList<>(ids);
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final String term;
+        final String id;
+
+        Entry(String term, String id) {
+            this.term = term;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int order = term.compareTo(other.term);
+            return order != 0 ? order : IdOrderIndex.ID_ORDER.compare(id, other.id);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry && compareTo((Entry) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return term.hashCode() * 31 + id.hashCode();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package virtualcare.service.storage;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * Keyed, in-memory store for one entity type with a persistent backing.
+ * Implemented by a single {@link EntityStore} and by a {@link ShardedStore}
+ * that spreads records over several of them.
+ */
+public interface RecordStore<T extends Serializable> {
+
+    /**
+     * Loads the store on first use, and reloads it only if its files changed on disk
+     */
+    void refresh() throws IOException, ClassNotFoundException;
+
+    /**
+     * Like {@link #refresh()}, but once loaded only checks the files that can hold the given ID
+     */
+    default void refresh(String id) throws IOException, ClassNotFoundException {
+        refresh();
+    }
+
+    void put(T entity) throws IOException;
+
+    boolean remove(String id) throws IOException;
+
+    T get(String id);
+
+    boolean contains(String id);
+
+    Collection<T> values();
+
+    /**
+     * Registers an index to be kept up to date with this store. Indexes are
+     * added before the store is first loaded.
+     */
+    void addIndex(EntityIndex<T> index);
+
+    /**
+     * Reads the persisted ID high-water mark, or -1 if none was recorded.
+     * Does not load the store.
+     */
+    long readHighWaterMark() throws IOException;
+
+    void writeHighWaterMark(long mark) throws IOException;
+
+    /**
+     * Writes pending saves and releases the files
+     */
+    void close();
+}
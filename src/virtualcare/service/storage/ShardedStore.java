@@ -0,0 +1,437 @@
+package virtualcare.service.storage;
+
+import virtualcare.service.codec.EntityCodec;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Store for one entity type split into hash partitions, each an
+ * {@link EntityStore} with its own journal and snapshot:
+ *
+ *   data/patients/shard.properties   shard count
+ *   data/patients/shard-00.log       journal of partition 0
+ *   data/patients/shard-00.snap      snapshot of partition 0
+ *
+ * A record lives in partition floorMod(id.hashCode(), count). Partitions are
+ * written and compacted independently, and the first load reads them in
+ * parallel on the given executor.
+ *
+ * The shard count is fixed when the directory is created; a different count
+ * configured later only takes effect after {@link #reshard}. Data in the
+ * unsharded layout (patients.dat, patients.log, patients.snap) is moved into
+ * the partitions on first load and the old files are renamed to *.migrated.
+ */
+public class ShardedStore<T extends Serializable> implements RecordStore<T> {
+    private static final String LAYOUT_FILE = "shard.properties";
+    private static final String MIGRATED_SUFFIX = ".migrated";
+
+    private final File directory;
+    private final File unshardedBase;
+    private final Function<T, String> idOf;
+    private final EntityCodec<T> codec;
+    private final ExecutorService loader;
+    private final EntityStore<T>[] shards;
+    private final Collection<T> values = new ShardValues();
+    private volatile boolean loaded;
+
+    /**
+     * @param unshardedBase Path of the unsharded files without extension, e.g. data/patients
+     * @param shardCount Number of partitions for a new directory
+     * @param loader Executor the partitions are loaded on, or null to load them one by one
+     * @throws IOException If the directory's shard count cannot be read
+     */
+    public ShardedStore(File directory, File unshardedBase, int shardCount, Function<T, String> idOf,
+            EntityCodec<T> codec, GroupCommitWriter writer, Compactor compactor, ExecutorService loader)
+            throws IOException {
+        this.directory = directory;
+        this.unshardedBase = unshardedBase;
+        this.idOf = idOf;
+        this.codec = codec;
+        this.loader = loader;
+        int count = readShardCount(directory, shardCount);
+        this.shards = newShards(count);
+        for (int i = 0; i < count; i++) {
+            String name = String.format("shard-%02d", i);
+            shards[i] = new EntityStore<>(new File(directory, name + ".dat"), new File(directory, name + ".log"),
+                    new File(directory, name + ".snap"), idOf, codec, writer, compactor);
+        }
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static <T extends Serializable> EntityStore<T>[] newShards(int count) {
+        return new EntityStore[count];
+    }
+
+    /**
+     * Reads the shard count of an existing directory, or creates the directory
+     * with the given count. A layout file that cannot be read is an error
+     * rather than a reason to assume a count, since the wrong count sends
+     * every lookup and write to the wrong shard.
+     */
+    private static int readShardCount(File directory, int shardCount) throws IOException {
+        File layout = new File(directory, LAYOUT_FILE);
+        if (layout.exists()) {
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(layout)) {
+                properties.load(in);
+            }
+            String value = properties.getProperty("count");
+            int count;
+            try {
+                count = value != null ? Integer.parseInt(value.trim()) : 0;
+            } catch (NumberFormatException e) {
+                count = 0;
+            }
+            if (count < 1) {
+                throw new IOException("Invalid shard count in " + layout + ": " + value);
+            }
+            return count;
+        }
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1");
+        }
+        directory.mkdirs();
+        Properties properties = new Properties();
+        properties.setProperty("count", Integer.toString(shardCount));
+        try (OutputStream out = new FileOutputStream(layout)) {
+            properties.store(out, "Number of hash partitions; change with virtualcare.tools.Reshard");
+        } catch (IOException e) {
+            System.err.println("Error writing " + layout + ": " + e.getMessage());
+        }
+        return shardCount;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    private EntityStore<T> shardFor(String id) {
+        return shards[Math.floorMod(id.hashCode(), shards.length)];
+    }
+
+    @Override
+    public void refresh() throws IOException, ClassNotFoundException {
+        if (!loaded) {
+            load();
+            return;
+        }
+        for (EntityStore<T> shard : shards) {
+            shard.refresh();
+        }
+    }
+
+    @Override
+    public void refresh(String id) throws IOException, ClassNotFoundException {
+        if (!loaded || id == null) {
+            refresh();
+            return;
+        }
+        shardFor(id).refresh();
+    }
+
+    private synchronized void load() throws IOException, ClassNotFoundException {
+        if (loaded) {
+            return;
+        }
+        if (loader == null) {
+            for (EntityStore<T> shard : shards) {
+                shard.refresh();
+            }
+        } else {
+            List<Future<Void>> loads = new ArrayList<>(shards.length);
+            for (EntityStore<T> shard : shards) {
+                loads.add(loader.submit(() -> {
+                    shard.refresh();
+                    return null;
+                }));
+            }
+            for (Future<Void> load : loads) {
+                try {
+                    load.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while loading " + directory);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof ClassNotFoundException) {
+                        throw (ClassNotFoundException) cause;
+                    }
+                    throw new IOException("Error loading " + directory, cause);
+                }
+            }
+        }
+        migrateUnsharded();
+        loaded = true;
+    }
+
+    private File unshardedFile(String suffix) {
+        return new File(unshardedBase.getPath() + suffix);
+    }
+
+    /**
+     * Moves records from the unsharded files into the partitions
+     */
+    private void migrateUnsharded() throws IOException, ClassNotFoundException {
+        File legacy = unshardedFile(".dat");
+        File journal = unshardedFile(".log");
+        File snapshot = unshardedFile(".snap");
+        if (!legacy.exists() && !journal.exists() && !snapshot.exists()) {
+            return;
+        }
+        EntityStore<T> unsharded = new EntityStore<>(legacy, journal, snapshot, idOf, codec, null, null);
+        long mark = unsharded.readHighWaterMark();
+        unsharded.refresh();
+        for (T entity : unsharded.values()) {
+            put(entity);
+        }
+        for (EntityStore<T> shard : shards) {
+            shard.flushPending();
+        }
+        if (mark > readHighWaterMark()) {
+            writeHighWaterMark(mark);
+        }
+        unsharded.close();
+        for (File file : Arrays.asList(journal, snapshot)) {
+            if (file.exists()) {
+                file.renameTo(new File(file.getPath() + MIGRATED_SUFFIX));
+            }
+        }
+    }
+
+    @Override
+    public void put(T entity) throws IOException {
+        shardFor(idOf.apply(entity)).put(entity);
+    }
+
+    @Override
+    public boolean remove(String id) throws IOException {
+        return id != null && shardFor(id).remove(id);
+    }
+
+    @Override
+    public T get(String id) {
+        return id != null ? shardFor(id).get(id) : null;
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return id != null && shardFor(id).contains(id);
+    }
+
+    @Override
+    public void addIndex(EntityIndex<T> index) {
+        for (EntityStore<T> shard : shards) {
+            shard.addIndex(index);
+        }
+    }
+
+    /**
+     * Live view of the records of all partitions
+     */
+    @Override
+    public Collection<T> values() {
+        return values;
+    }
+
+    /**
+     * The mark is written to the first partition; the highest mark of any
+     * partition or of unmigrated unsharded data counts
+     */
+    @Override
+    public long readHighWaterMark() throws IOException {
+        long mark = -1;
+        for (EntityStore<T> shard : shards) {
+            mark = Math.max(mark, shard.readHighWaterMark());
+        }
+        File journal = unshardedFile(".log");
+        if (journal.exists()) {
+            mark = Math.max(mark, new EntityJournal<>(journal, codec, idOf).readHighWaterMark());
+        }
+        return mark;
+    }
+
+    @Override
+    public void writeHighWaterMark(long mark) throws IOException {
+        shards[0].writeHighWaterMark(mark);
+    }
+
+    @Override
+    public void close() {
+        for (EntityStore<T> shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Rewrites a sharded directory with a new shard count. Must only be run
+     * while the application is stopped. The new layout is written next to the
+     * old one and swapped in by renaming, and the old one is kept as
+     * directory.old until the swap has succeeded.
+     */
+    public static <T extends Serializable> int reshard(File directory, File unshardedBase, int newCount,
+            Function<T, String> idOf, EntityCodec<T> codec) throws IOException, ClassNotFoundException {
+        if (newCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1");
+        }
+        ShardedStore<T> source = new ShardedStore<>(directory, unshardedBase, newCount, idOf, codec, null, null, null);
+        source.refresh();
+        long mark = source.readHighWaterMark();
+        List<T> records = new ArrayList<>(source.values());
+        source.close();
+
+        File staging = new File(directory.getPath() + ".reshard");
+        deleteDirectory(staging);
+        ShardedStore<T> target = new ShardedStore<>(staging, new File(staging, "none"), newCount, idOf, codec, null, null, null);
+        for (T entity : records) {
+            target.put(entity);
+        }
+        if (mark >= 0) {
+            target.writeHighWaterMark(mark);
+        }
+        target.close();
+
+        File old = new File(directory.getPath() + ".old");
+        deleteDirectory(old);
+        Files.move(directory.toPath(), old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Files.move(staging.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        deleteDirectory(old);
+        return records.size();
+    }
+
+    private static void deleteDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.deleteIfExists(directory.toPath());
+    }
+
+    /**
+     * Concatenation of the partitions' record maps
+     */
+    private final class ShardValues extends AbstractCollection<T> {
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private int shard;
+                private Iterator<T> current = shards[0].values().iterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!current.hasNext() && shard < shards.length - 1) {
+                        current = shards[++shard].values().iterator();
+                    }
+                    return current.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return current.next();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (EntityStore<T> shard : shards) {
+                size += shard.values().size();
+            }
+            return size;
+        }
+
+        /**
+         * Splits by shard range first, then within the last shard, so
+         * parallel streams get one partition per thread without copying
+         */
+        @Override
+        public Spliterator<T> spliterator() {
+            return new ShardSpliterator(0, shards.length);
+        }
+    }
+
+    /**
+     * Walks the partitions from..to, delegating to each partition's own
+     * spliterator in turn
+     */
+    private final class ShardSpliterator implements Spliterator<T> {
+        private int next;
+        private int end;
+        private Spliterator<T> current;
+
+        ShardSpliterator(int from, int to) {
+            this.next = from;
+            this.end = to;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (true) {
+                if (current == null) {
+                    if (next >= end) {
+                        return false;
+                    }
+                    current = shards[next++].values().spliterator();
+                }
+                if (current.tryAdvance(action)) {
+                    return true;
+                }
+                current = null;
+            }
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (current != null) {
+                current.forEachRemaining(action);
+                current = null;
+            }
+            while (next < end) {
+                shards[next++].values().spliterator().forEachRemaining(action);
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (end - next > 1) {
+                int middle = (next + end) >>> 1;
+                Spliterator<T> split = new ShardSpliterator(middle, end);
+                end = middle;
+                return split;
+            }
+            if (current == null && next < end) {
+                current = shards[next++].values().spliterator();
+            }
+            return current != null ? current.trySplit() : null;
+        }
+
+        @Override
+        public long estimateSize() {
+            long size = current != null ? current.estimateSize() : 0;
+            for (int shard = next; shard < end; shard++) {
+                size += shards[shard].values().size();
+            }
+            return size;
+        }
+
+        @Override
+        public int characteristics() {
+            return CONCURRENT | NONNULL;
+        }
+    }
+}
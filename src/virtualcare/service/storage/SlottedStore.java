@@ -0,0 +1,448 @@
+package virtualcare.service.storage;
+
+import virtualcare.service.codec.SlotCodec;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Store for one entity type that keeps every entity in a fixed-size slot of
+ * a memory-mapped file, laid out by a {@link SlotCodec}.
+ *
+ * File layout: a header (magic, version, slot size, ID high-water mark,
+ * number of slots in use) followed by slots of the form
+ * [state][crc32][entity]. A removal marks the slot free and puts it on a
+ * free list, from which entities are placed before the file grows. Only the
+ * ID-to-slot map is kept on the heap, and entities are decoded straight from
+ * the mapping when read, so the store can hold millions of rows.
+ *
+ * Entities the slot layout cannot represent are kept in an overflow store.
+ * Entities in the overflow store that fit are moved into slots on load.
+ *
+ * As with {@link MappedStore}, saves survive a crash of the application and
+ * {@link #flush()} forces them to disk. A slot is never rewritten in place:
+ * the new version of an entity is written to another slot, checksummed and
+ * marked pending, then the old slot is freed and the new one marked used.
+ * Whenever the application stops, one complete version is on disk; load
+ * keeps a pending slot only if its entity has no used slot.
+ */
+public class SlottedStore<T extends Serializable> implements RecordStore<T> {
+    private static final int MAGIC = 0x5643534C; // "VCSL"
+    private static final int VERSION = 1;
+    private static final int SLOT_SIZE_OFFSET = 8;
+    private static final int MARK_OFFSET = 16;
+    private static final int COUNT_OFFSET = 24;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_HEADER_SIZE = 5;
+    private static final int INITIAL_SLOTS = 8192;
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+    // Holds the new version of an entity whose old slot may not be freed yet
+    private static final byte PENDING = 2;
+
+    private final File file;
+    private final SlotCodec<T> codec;
+    private final Function<T, String> idOf;
+    private final MappedStore<T> overflow;
+    private final int slotSize;
+    private final CRC32 crc = new CRC32();
+    private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+    private final Collection<T> values = new SlotValues();
+    private final List<EntityIndex<T>> indexes = new CopyOnWriteArrayList<>();
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int slotCount;
+    private boolean loaded;
+
+    public SlottedStore(File file, SlotCodec<T> codec, Function<T, String> idOf, MappedStore<T> overflow) {
+        this.file = file;
+        this.codec = codec;
+        this.idOf = idOf;
+        this.overflow = overflow;
+        this.slotSize = SLOT_HEADER_SIZE + codec.slotSize();
+    }
+
+    private void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            map(HEADER_SIZE + (long) INITIAL_SLOTS * slotSize);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(SLOT_SIZE_OFFSET, slotSize);
+            buffer.putLong(MARK_OFFSET, -1);
+            buffer.putInt(COUNT_OFFSET, 0);
+            slotCount = 0;
+            return;
+        }
+        map(size);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a slotted store file: " + file);
+        }
+        if (buffer.getInt(SLOT_SIZE_OFFSET) != slotSize) {
+            throw new IOException("Slot size of " + file + " is " + buffer.getInt(SLOT_SIZE_OFFSET)
+                    + ", expected " + slotSize);
+        }
+        slotCount = (int) Math.min(buffer.getInt(COUNT_OFFSET), (size - HEADER_SIZE) / slotSize);
+    }
+
+    private void map(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Slotted store is full: " + file);
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private int offsetOf(int slot) {
+        return HEADER_SIZE + slot * slotSize;
+    }
+
+    @Override
+    public synchronized void refresh() throws IOException {
+        if (!loaded) {
+            load();
+        }
+    }
+
+    /**
+     * Scans the slots to rebuild the ID-to-slot map and the free list
+     */
+    private void load() throws IOException {
+        open();
+        overflow.refresh();
+        slots.clear();
+        freeCount = 0;
+        List<Integer> pending = new ArrayList<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            int offset = offsetOf(slot);
+            if (buffer.get(offset) == PENDING && checksum(offset) == buffer.getInt(offset + 1)) {
+                pending.add(slot);
+                continue;
+            }
+            if (buffer.get(offset) == USED) {
+                if (checksum(offset) == buffer.getInt(offset + 1)) {
+                    String id = codec.readID(buffer, offset + SLOT_HEADER_SIZE);
+                    if (slots.putIfAbsent(id, slot) == null) {
+                        if (!indexes.isEmpty()) {
+                            T entity = codec.read(buffer, offset + SLOT_HEADER_SIZE);
+                            for (EntityIndex<T> index : indexes) {
+                                index.put(id, entity);
+                            }
+                        }
+                        continue;
+                    }
+                } else {
+                    System.err.println("Dropping damaged slot " + slot + " in " + file);
+                }
+                buffer.put(offset, FREE);
+            } else if (buffer.get(offset) != FREE) {
+                // A pending slot the application died while writing; the old version is kept
+                buffer.put(offset, FREE);
+            }
+            pushFree(slot);
+        }
+        // The application died between writing these and marking them used
+        for (int slot : pending) {
+            int offset = offsetOf(slot);
+            String id = codec.readID(buffer, offset + SLOT_HEADER_SIZE);
+            if (slots.putIfAbsent(id, slot) == null) {
+                buffer.put(offset, USED);
+                T entity = codec.read(buffer, offset + SLOT_HEADER_SIZE);
+                for (EntityIndex<T> index : indexes) {
+                    index.put(id, entity);
+                }
+            } else {
+                buffer.put(offset, FREE);
+                pushFree(slot);
+            }
+        }
+        loaded = true;
+
+        List<T> movable = new ArrayList<>();
+        for (T entity : overflow.values()) {
+            if (codec.fits(entity)) {
+                movable.add(entity);
+            }
+        }
+        for (T entity : movable) {
+            put(entity);
+        }
+    }
+
+    private int checksum(int offset) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(offset + slotSize);
+        body.position(offset + SLOT_HEADER_SIZE);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private void pushFree(int slot) {
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Takes a slot from the free list, or appends one, growing the mapping when it is full
+     */
+    private int allocate() throws IOException {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (offsetOf(slotCount) + slotSize > buffer.capacity()) {
+            long required = (long) offsetOf(slotCount) + slotSize;
+            map(Math.max(Math.min((long) buffer.capacity() * 2, Integer.MAX_VALUE), required));
+        }
+        int slot = slotCount++;
+        buffer.putInt(COUNT_OFFSET, slotCount);
+        return slot;
+    }
+
+    /**
+     * Writes the entity, then its checksum, then sets the state of the slot
+     */
+    private void writeSlot(int slot, T entity, byte state) {
+        int offset = offsetOf(slot);
+        codec.write(buffer, offset + SLOT_HEADER_SIZE, entity);
+        buffer.putInt(offset + 1, checksum(offset));
+        buffer.put(offset, state);
+    }
+
+    @Override
+    public synchronized void put(T entity) throws IOException {
+        refresh();
+        String id = idOf.apply(entity);
+        if (!codec.fits(entity)) {
+            freeSlot(id);
+            overflow.put(entity);
+            return;
+        }
+        overflow.remove(id);
+        Integer previous = slots.get(id);
+        int slot = allocate();
+        if (previous == null) {
+            writeSlot(slot, entity, USED);
+        } else {
+            // The old version stays intact until the new one is complete
+            writeSlot(slot, entity, PENDING);
+            buffer.put(offsetOf(previous), FREE);
+            buffer.put(offsetOf(slot), USED);
+            pushFree(previous);
+        }
+        slots.put(id, slot);
+        for (EntityIndex<T> index : indexes) {
+            index.put(id, entity);
+        }
+    }
+
+    private boolean freeSlot(String id) {
+        Integer slot = slots.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        buffer.put(offsetOf(slot), FREE);
+        pushFree(slot);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(String id) throws IOException {
+        refresh();
+        if (id == null || !freeSlot(id)) {
+            return id != null && overflow.remove(id);
+        }
+        for (EntityIndex<T> index : indexes) {
+            index.remove(id);
+        }
+        return true;
+    }
+
+    /**
+     * Also registers the index with the overflow store
+     */
+    @Override
+    public void addIndex(EntityIndex<T> index) {
+        indexes.add(index);
+        overflow.addIndex(index);
+    }
+
+    @Override
+    public synchronized T get(String id) {
+        if (id == null) {
+            return null;
+        }
+        Integer slot = slots.get(id);
+        if (slot == null) {
+            return overflow.get(id);
+        }
+        return codec.read(buffer, offsetOf(slot) + SLOT_HEADER_SIZE);
+    }
+
+    @Override
+    public synchronized boolean contains(String id) {
+        return id != null && (slots.containsKey(id) || overflow.contains(id));
+    }
+
+    /**
+     * Live view that decodes each entity only when it is reached, followed by
+     * the overflow store's entities
+     */
+    @Override
+    public Collection<T> values() {
+        return values;
+    }
+
+    /**
+     * Decodes the entity in the slot of the ID, or returns null if it no
+     * longer has one
+     */
+    private synchronized T readSlot(String id) {
+        Integer slot = slots.get(id);
+        if (slot == null || buffer == null) {
+            return null;
+        }
+        return codec.read(buffer, offsetOf(slot) + SLOT_HEADER_SIZE);
+    }
+
+    @Override
+    public synchronized long readHighWaterMark() throws IOException {
+        open();
+        return buffer.getLong(MARK_OFFSET);
+    }
+
+    /**
+     * The mark is forced to disk at once, as a lost lease could hand out an ID twice
+     */
+    @Override
+    public synchronized void writeHighWaterMark(long mark) throws IOException {
+        open();
+        buffer.putLong(MARK_OFFSET, mark);
+        buffer.force();
+    }
+
+    /**
+     * Forces saves made so far to disk
+     */
+    public synchronized void flush() {
+        if (buffer != null) {
+            buffer.force();
+        }
+        overflow.flush();
+    }
+
+    @Override
+    public synchronized void close() {
+        overflow.close();
+        if (channel == null) {
+            return;
+        }
+        buffer.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+
+        }
+        // The mapping stays valid until it is garbage collected
+        channel = null;
+        buffer = null;
+        slots.clear();
+        loaded = false;
+    }
+    /**
+     * Slot entities are looked up by ID as the walk reaches them, so entities
+     * removed meanwhile are skipped and the view never blocks saves for long
+     */
+    private final class SlotValues extends AbstractCollection<T> {
+
+        @Override
+        public Iterator<T> iterator() {
+            return Spliterators.iterator(spliterator());
+        }
+
+        @Override
+        public int size() {
+            return slots.size() + overflow.values().size();
+        }
+
+        @Override
+        public Spliterator<T> spliterator() {
+            return new SlotSpliterator(slots.keySet().spliterator(), overflow.values().spliterator());
+        }
+    }
+
+    /**
+     * Decodes the slots of the IDs from a key spliterator, then hands out the
+     * overflow entities; splits share out the keys only
+     */
+    private final class SlotSpliterator implements Spliterator<T> {
+        private final Spliterator<String> ids;
+        private final Spliterator<T> overflowValues;
+        private T entity;
+
+        SlotSpliterator(Spliterator<String> ids, Spliterator<T> overflowValues) {
+            this.ids = ids;
+            this.overflowValues = overflowValues;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (ids.tryAdvance(id -> entity = readSlot(id))) {
+                T next = entity;
+                entity = null;
+                if (next != null) {
+                    action.accept(next);
+                    return true;
+                }
+            }
+            return overflowValues != null && overflowValues.tryAdvance(action);
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            ids.forEachRemaining(id -> {
+                T next = readSlot(id);
+                if (next != null) {
+                    action.accept(next);
+                }
+            });
+            if (overflowValues != null) {
+                overflowValues.forEachRemaining(action);
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            Spliterator<String> split = ids.trySplit();
+            return split != null ? new SlotSpliterator(split, null) : null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return ids.estimateSize() + (overflowValues != null ? overflowValues.estimateSize() : 0);
+        }
+
+        @Override
+        public int characteristics() {
+            return CONCURRENT | NONNULL;
+        }
+    }
+}
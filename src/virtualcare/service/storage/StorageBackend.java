@@ -0,0 +1,56 @@
+package virtualcare.service.storage;
+
+import virtualcare.service.codec.EntityCodec;
+import virtualcare.service.codec.SlotCodec;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.function.Function;
+
+/**
+ * Where and how DataManager keeps its entity stores. A backend opens one
+ * {@link RecordStore} per entity type and owns whatever the stores share,
+ * such as background writer threads.
+ *
+ * Backends are chosen at startup (see DataManager), so they can be compared
+ * on the same workload:
+ *   journal - append-only journals and snapshots ({@link JournalBackend})
+ *   mmap    - memory-mapped record files ({@link MappedBackend}), with
+ *             fixed-size slots for types that have a {@link SlotCodec}
+ *   memory  - nothing persisted, for load tests ({@link InMemoryBackend})
+ */
+public interface StorageBackend {
+
+    /**
+     * Opens the store for one entity type
+     *
+     * @param name Name of the entity type, e.g. "patients"; used for its files
+     * @param highVolume Whether the type grows with usage, so a backend may partition it
+     */
+    <T extends Serializable> RecordStore<T> open(String name, Function<T, String> idOf,
+            EntityCodec<T> codec, boolean highVolume);
+
+    /**
+     * Opens the store for an entity type that also has a fixed-width slot
+     * layout. Backends that can update slots in place override this.
+     */
+    default <T extends Serializable> RecordStore<T> open(String name, Function<T, String> idOf,
+            EntityCodec<T> codec, SlotCodec<T> slotCodec, boolean highVolume) {
+        return open(name, idOf, codec, highVolume);
+    }
+
+    /**
+     * Directory the backend keeps its files in, or null if nothing is persisted
+     */
+    File getDirectory();
+
+    /**
+     * Blocks until every save made so far is on disk
+     */
+    void flush() throws IOException;
+
+    /**
+     * Writes pending saves, stops background threads and releases the files of all opened stores
+     */
+    void close();
+}
@@ -0,0 +1,141 @@
+package virtualcare.service.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * The IDs of a store ordered by a time taken from each entity, overall and
+ * per group (for example per provider), so a time range or the next few
+ * entries are found in O(log n + k) instead of by scanning. Entities whose
+ * time is {@link #NO_TIME} are left out; entities whose group is null are
+ * only in the overall order.
+ *
+ * Entries with the same time are ordered by {@link IdOrderIndex#ID_ORDER}.
+ */
+public class TimeIndex<T> implements EntityIndex<T> {
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private final ToLongFunction<T> timeOf;
+    private final Function<T, String> groupOf;
+    private final NavigableSet<Entry> all = new ConcurrentSkipListSet<>();
+    private final Map<String, NavigableSet<Entry>> byGroup = new ConcurrentHashMap<>();
+    private final Map<String, Entry> byId = new ConcurrentHashMap<>();
+
+    /**
+     * @param groupOf Group of an entity, or null to only keep the overall order
+     */
+    public TimeIndex(ToLongFunction<T> timeOf, Function<T, String> groupOf) {
+        this.timeOf = timeOf;
+        this.groupOf = groupOf;
+    }
+
+    @Override
+    public void put(String id, T entity) {
+        long time = timeOf.applyAsLong(entity);
+        if (time == NO_TIME) {
+            remove(id);
+            return;
+        }
+        Entry entry = new Entry(time, id, groupOf != null ? groupOf.apply(entity) : null);
+        Entry previous = byId.put(id, entry);
+        if (previous != null) {
+            if (previous.sameAs(entry)) {
+                return;
+            }
+            unfile(previous);
+        }
+        all.add(entry);
+        if (entry.group != null) {
+            byGroup.computeIfAbsent(entry.group, g -> new ConcurrentSkipListSet<>()).add(entry);
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        Entry previous = byId.remove(id);
+        if (previous != null) {
+            unfile(previous);
+        }
+    }
+
+    private void unfile(Entry entry) {
+        all.remove(entry);
+        if (entry.group != null) {
+            NavigableSet<Entry> entries = byGroup.get(entry.group);
+            if (entries != null) {
+                entries.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * IDs with a time from {@code from} inclusive to {@code to} exclusive, in time order
+     */
+    public List<String> between(long from, long to) {
+        return ids(all, from, to, Integer.MAX_VALUE);
+    }
+
+    public List<String> between(String group, long from, long to) {
+        return ids(group(group), from, to, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The first {@code limit} IDs with a time from {@code from} on, in time order
+     */
+    public List<String> from(long from, int limit) {
+        return ids(all, from, Long.MAX_VALUE, limit);
+    }
+
+    public List<String> from(String group, long from, int limit) {
+        return ids(group(group), from, Long.MAX_VALUE, limit);
+    }
+
+    private NavigableSet<Entry> group(String group) {
+        NavigableSet<Entry> entries = group != null ? byGroup.get(group) : null;
+        return entries != null ? entries : Collections.emptyNavigableSet();
+    }
+
+    private static List<String> ids(NavigableSet<Entry> entries, long from, long to, int limit) {
+        List<String> ids = new ArrayList<>();
+        if (from >= to) {
+            return ids;
+        }
+        // An empty ID sorts before every real one at the same time
+        for (Entry entry : entries.subSet(new Entry(from, "", null), true, new Entry(to, "", null), false)) {
+            if (ids.size() == limit) {
+                break;
+            }
+            ids.add(entry.id);
+        }
+        return ids;
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final long time;
+        final String id;
+        final String group;
+
+        Entry(long time, String id, String group) {
+            this.time = time;
+            this.id = id;
+            this.group = group;
+        }
+
+        boolean sameAs(Entry other) {
+            return time == other.time && (group == null ? other.group == null : group.equals(other.group));
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int order = Long.compare(time, other.time);
+            return order != 0 ? order : IdOrderIndex.ID_ORDER.compare(id, other.id);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package virtualcare.service.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Substring search over some text fields of each entity. A query matches an
+ * entity if one of its fields, lowercased, contains the lowercased query,
+ * exactly as a scan with {@code toLowerCase().contains} would decide.
+ *
+ * Every entity gets a document number, and each three-character sequence
+ * (trigram) of its lowercased fields maps to the sorted document numbers it
+ * occurs in. A query of three or more characters only looks at the documents
+ * of its rarest trigram, and confirms each against the lowercased fields,
+ * which are kept with the document. Shorter queries check the kept fields of
+ * every document, which still avoids reading and lowercasing the entities.
+ * The fields of a document are kept joined by a NUL character, one string
+ * per document, and no trigram spans two fields.
+ *
+ * A save that changes the fields or a removal retires the document number
+ * instead of editing the postings; the postings are rebuilt once retired
+ * numbers make up half of them.
+ */
+public class TrigramIndex<T> implements EntityIndex<T> {
+    private static final int INITIAL_DOCUMENTS = 1024;
+    private static final char SEPARATOR = '\0';
+
+    private final Function<T, String[]> fieldsOf;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> documentById = new HashMap<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private String[] ids = new String[INITIAL_DOCUMENTS];
+    // Lowercased fields of each document joined by SEPARATOR, or null once it is retired
+    private String[] texts = new String[INITIAL_DOCUMENTS];
+    private int documentCount;
+    private int retiredCount;
+
+    /**
+     * @param fieldsOf The fields to search; null fields are skipped
+     */
+    public TrigramIndex(Function<T, String[]> fieldsOf) {
+        this.fieldsOf = fieldsOf;
+    }
+
+    @Override
+    public void put(String id, T entity) {
+        StringBuilder joined = new StringBuilder();
+        for (String field : fieldsOf.apply(entity)) {
+            if (field != null) {
+                joined.append(field.toLowerCase()).append(SEPARATOR);
+            }
+        }
+        String text = joined.toString();
+        lock.writeLock().lock();
+        try {
+            Integer previous = documentById.get(id);
+            if (previous != null) {
+                if (text.equals(texts[previous])) {
+                    return;
+                }
+                retire(previous);
+            }
+            int document = documentCount++;
+            if (document == ids.length) {
+                ids = Arrays.copyOf(ids, document * 2);
+                texts = Arrays.copyOf(texts, document * 2);
+            }
+            ids[document] = id;
+            texts[document] = text;
+            documentById.put(id, document);
+            addPostings(text, document);
+            if (retiredCount > documentCount / 2) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer document = documentById.remove(id);
+            if (document != null) {
+                retire(document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void retire(int document) {
+        texts[document] = null;
+        ids[document] = null;
+        retiredCount++;
+    }
+
+    /**
+     * Renumbers the live documents and rebuilds the postings without the retired ones
+     */
+    private void rebuild() {
+        String[] oldIds = ids;
+        String[] oldTexts = texts;
+        int oldCount = documentCount;
+        int capacity = Math.max(INITIAL_DOCUMENTS, Integer.highestOneBit(Math.max(1, oldCount - retiredCount)) * 2);
+        ids = new String[capacity];
+        texts = new String[capacity];
+        documentCount = 0;
+        retiredCount = 0;
+        documentById.clear();
+        postings.clear();
+        for (int old = 0; old < oldCount; old++) {
+            if (oldTexts[old] != null) {
+                int document = documentCount++;
+                ids[document] = oldIds[old];
+                texts[document] = oldTexts[old];
+                documentById.put(oldIds[old], document);
+                addPostings(oldTexts[old], document);
+            }
+        }
+        for (Postings list : postings.values()) {
+            list.trim();
+        }
+    }
+
+    private void addPostings(String text, int document) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            if (text.charAt(i + 1) == SEPARATOR) {
+                i++;
+            } else if (text.charAt(i + 2) != SEPARATOR) {
+                postings.computeIfAbsent(trigram(text, i), t -> new Postings()).add(document);
+            }
+        }
+    }
+
+    /**
+     * IDs of the entities with a field containing the query, ignoring case
+     */
+    public List<String> search(String query) {
+        return search(query, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #search(String)}, but stops once {@code max} IDs are found
+     */
+    public List<String> search(String query, int max) {
+        String lowerQuery = query.toLowerCase();
+        List<String> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (lowerQuery.length() < 3) {
+                for (int document = 0; document < documentCount && matches.size() < max; document++) {
+                    if (contains(texts[document], lowerQuery)) {
+                        matches.add(ids[document]);
+                    }
+                }
+                return matches;
+            }
+            Postings rarest = null;
+            for (int i = 0; i + 3 <= lowerQuery.length(); i++) {
+                Postings list = postings.get(trigram(lowerQuery, i));
+                if (list == null) {
+                    return matches;
+                }
+                if (rarest == null || list.size < rarest.size) {
+                    rarest = list;
+                }
+            }
+            for (int i = 0; i < rarest.size && matches.size() < max; i++) {
+                int document = rarest.documents[i];
+                if (contains(texts[document], lowerQuery)) {
+                    matches.add(ids[document]);
+                }
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Tests single entities against a query, such as the ones a listing is
+     * walking through. IDs not in the index do not match.
+     */
+    public Predicate<String> matcher(String query) {
+        String lowerQuery = query.toLowerCase();
+        return id -> {
+            lock.readLock().lock();
+            try {
+                Integer document = documentById.get(id);
+                return document != null && contains(texts[document], lowerQuery);
+            } finally {
+                lock.readLock().unlock();
+            }
+        };
+    }
+
+    private static boolean contains(String text, String lowerQuery) {
+        // The separator keeps a match from spanning two fields
+        return text != null && lowerQuery.indexOf(SEPARATOR) < 0 && text.contains(lowerQuery);
+    }
+
+    private static long trigram(String text, int start) {
+        return (long) text.charAt(start) << 32 | (long) text.charAt(start + 1) << 16 | text.charAt(start + 2);
+    }
+
+    /**
+     * Rough heap size of the index in bytes: postings, kept fields and maps
+     */
+    public long estimateMemory() {
+        lock.readLock().lock();
+        try {
+            // Object header and array length, and a HashMap entry with its boxed key
+            long bytes = 16L * 2 + 8L * 2 * ids.length + 48L * documentById.size() + 48L * postings.size();
+            for (Postings list : postings.values()) {
+                bytes += 32 + 4L * list.documents.length;
+            }
+            for (int document = 0; document < documentCount; document++) {
+                if (texts[document] != null) {
+                    bytes += 40 + 2L * texts[document].length();
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of entities, distinct trigrams and estimated memory, for logs
+     */
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            return (documentCount - retiredCount) + " records, " + postings.size() + " trigrams, ~"
+                    + estimateMemory() / (1024 * 1024) + " MB";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Growable sorted list of document numbers, each listed once
+     */
+    private static final class Postings {
+        int[] documents = new int[2];
+        int size;
+
+        void add(int document) {
+            if (size > 0 && documents[size - 1] == document) {
+                return;
+            }
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+            }
+            documents[size++] = document;
+        }
+
+        void trim() {
+            documents = Arrays.copyOf(documents, size);
+        }
+    }
+}
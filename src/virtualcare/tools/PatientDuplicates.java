@@ -0,0 +1,41 @@
+package virtualcare.tools;
+
+import virtualcare.model.Patient;
+import virtualcare.service.DataManager;
+import java.util.List;
+
+/**
+ * Lists the groups of patients in data/ whose names sound alike, which are
+ * likely the same person registered twice. Run from the application
+ * directory while the application is stopped:
+ *
+ *   javac -d out -sourcepath src src/virtualcare/tools/PatientDuplicates.java
+ *   java -cp out virtualcare.tools.PatientDuplicates
+ */
+public class PatientDuplicates {
+
+    public static void main(String[] args) {
+        DataManager dataManager = null;
+        try {
+            dataManager = new DataManager();
+            List<List<Patient>> clusters = dataManager.findDuplicatePatientClusters();
+            int patients = 0;
+            for (List<Patient> cluster : clusters) {
+                for (Patient patient : cluster) {
+                    System.out.println(patient.getUserID() + "\t" + patient.getName() + "\t" + patient.getContactInfo());
+                }
+                System.out.println();
+                patients += cluster.size();
+            }
+            System.out.println(clusters.size() + " groups, " + patients + " patients");
+        } catch (Exception e) {
+            System.err.println("Finding duplicates failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            if (dataManager != null) {
+                dataManager.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package virtualcare.tools;
+
+import virtualcare.service.DataManager;
+
+/**
+ * Prints the pairs of patients in data/ that are likely the same person,
+ * with their similarity, as they are found. Run from the application
+ * directory while the application is stopped:
+ *
+ *   javac -d out -sourcepath src src/virtualcare/tools/PatientMergeCandidates.java
+ *   java -cp out virtualcare.tools.PatientMergeCandidates 0.7
+ */
+public class PatientMergeCandidates {
+
+    public static void main(String[] args) {
+        if (args.length > 1) {
+            System.err.println("Usage: java virtualcare.tools.PatientMergeCandidates [minimum similarity, default 0.7]");
+            System.exit(2);
+        }
+        DataManager dataManager = null;
+        try {
+            double minSimilarity = args.length == 1 ? Double.parseDouble(args[0]) : 0.7;
+            dataManager = new DataManager();
+            long start = System.currentTimeMillis();
+            long pairs = dataManager.findDuplicatePatients(minSimilarity, candidate -> System.out.println(
+                    String.format("%.2f", candidate.getSimilarity())
+                    + "\t" + candidate.getFirst().getUserID() + "\t" + candidate.getFirst().getName()
+                    + "\t" + candidate.getSecond().getUserID() + "\t" + candidate.getSecond().getName()));
+            System.out.println(pairs + " pairs in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("Finding merge candidates failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            if (dataManager != null) {
+                dataManager.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package virtualcare.tools;
+
+import virtualcare.service.DataManager;
+import java.util.Map;
+
+/**
+ * Changes the number of hash partitions of the patient and appointment
+ * stores in data/. Run from the application directory while the
+ * application is stopped:
+ *
+ *   javac -d out -sourcepath src src/virtualcare/tools/Reshard.java
+ *   java -cp out virtualcare.tools.Reshard 16
+ */
+public class Reshard {
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java virtualcare.tools.Reshard <shard count>");
+            System.exit(2);
+        }
+        try {
+            int shardCount = Integer.parseInt(args[0]);
+            for (Map.Entry<String, Integer> entry : DataManager.reshard(shardCount).entrySet()) {
+                System.out.println("Resharded " + entry.getValue() + " " + entry.getKey() + " into "
+                        + shardCount + " shards");
+            }
+        } catch (Exception e) {
+            System.err.println("Resharding failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}